@@ -2,10 +2,14 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.Sequence;
 
 import game2D.*;
 import sound.*;
@@ -54,15 +58,21 @@ public class Game extends GameCore implements MouseListener {
 
     private Sprite whiteKnight = null;
 
-    private final TileMap tMap = new TileMap();
+    //Sprite frames and each level's tiles are packed into atlas pages of these sizes
+    private static final int SPRITE_ATLAS_SIZE = 512;
+    private static final int TILE_ATLAS_SIZE = 256;
+    private TextureAtlas spriteAtlas;
+
+    //Where the input latency histogram is written when L is pressed in debug mode
+    private static final String INPUT_LATENCY_CSV = "input-latency.csv";
+
+    //Holds the positions and velocities of the player and the current level's sprites
+    private KinematicsStore kinematics;
+
+    //The current level's tile map, swapped for a freshly loaded one each time a level starts
+    private TileMap tMap;
     public static final char HORSE_SHOE_CHAR = 'e';
     public static final char HEART_CHAR = 'h';
-    public static final ArrayList<Character> BACKGROUND_CHARS = new ArrayList<>(
-            Arrays.asList('.', HORSE_SHOE_CHAR, HEART_CHAR, 'b', 'm', 't')
-    );
-    public static final ArrayList<Character> DAMAGE_CHARS = new ArrayList<>(
-            Arrays.asList('s')
-    );
     public static final char HAPPY_BLOCK_CHAR = ')';
     public static final char SAD_BLOCK_CHAR = '(';
 
@@ -77,15 +87,44 @@ public class Game extends GameCore implements MouseListener {
     private Level level1;
     private Level level2;
     private Level level3;
+    //The level being played, or last played, whose enemies are released when it is left. This is kept separately
+    //from currentLevel, which GameOver winds back before restarting a level
+    private Level activeLevel;
 
     private PlayMIDI backgroundSong;
 
+    private static final String[] LEVEL_MAPS = {"Level1Map.txt", "Level2Map.txt", "Level3Map.txt"};
+    private static final String LEVEL_BACKGROUND = "images/RollingHillsResized.png";
+    private static final String LEVEL_SONG = "sounds/StoneTower.mid";
+
+    //Loads the next level's assets in the background while the current level is played
+    private final AssetLoader assetLoader = new AssetLoader(2, 8);
+    private int preloadedLevel = 0; //When this is 0, no level is being preloaded
+    private Future<TileMap> preloadedMap;
+    private Future<Image> preloadedBackground;
+    private Future<Sequence> preloadedSong;
+
+    //The number of sprite pairs given an exact bounding box test in the last update
+    private int pairsTested;
+
     private static final String jumpSoundFilepath = "sounds/jump16bit.wav";
     private static final String hitHurtSoundFilepath = "sounds/hitHurt16bit.wav";
     private static final String pickupHorseshoeSoundFilepath = "sounds/pickupHorseshoe16bit.wav";
     private static final String healthUpSoundFilepath = "sounds/healthUp16bit.wav";
     private static final String pauseSoundFilepath = "sounds/pause16bit.wav";
 
+    //Sound effects are decoded once and mixed on a single audio thread
+    private final AudioMixer mixer = new AudioMixer(AudioMixer.DEFAULT_VOICES);
+    private final int jumpSound = mixer.load(jumpSoundFilepath);
+    private final int hitHurtSound = mixer.load(hitHurtSoundFilepath);
+    private final int pickupHorseshoeSound = mixer.load(pickupHorseshoeSoundFilepath);
+    private final int healthUpSound = mixer.load(healthUpSoundFilepath);
+    private final int pauseSound = mixer.load(pauseSoundFilepath);
+
+    //Enemy sounds are faded and panned by their distance from the player, and only the loudest few are played
+    private static final int MAX_SPATIAL_SOUNDS = 4;
+    private final SpatialAudioManager spatialAudio = new SpatialAudioManager(mixer, SCREEN_WIDTH, MAX_SPATIAL_SOUNDS);
+
     /**
      * The main method that creates an instance of our class and starts it running.
      *
@@ -93,6 +132,9 @@ public class Game extends GameCore implements MouseListener {
      */
     public static void main(String[] args) {
         Game gct = new Game();
+        //Run the physics at a fixed rate so that gravity and jumps don't depend on the frame rate
+        gct.setFixedTimestep(true);
+        gct.setTickRate(DEFAULT_TICK_RATE);
         //Start in windowed mode with the given screen height and width
         gct.run(false, SCREEN_WIDTH, SCREEN_HEIGHT);
     }
@@ -116,6 +158,8 @@ public class Game extends GameCore implements MouseListener {
         setMaximumSize(new Dimension(SCREEN_WIDTH + x, SCREEN_HEIGHT + y));
         setMinimumSize(new Dimension(SCREEN_WIDTH + x, SCREEN_HEIGHT + y));
 
+        mixer.start();
+
         initialiseMenu();
     }
 
@@ -172,12 +216,27 @@ public class Game extends GameCore implements MouseListener {
         Image imgBlackRookIdle = loadImage("images/BlackRookResized.png");
         blackRookIdle.addFrame(imgBlackRookIdle, 1000);
 
+        //Pack every frame into one atlas so that sprites are drawn from a single image
+        spriteAtlas = new TextureAtlas(SPRITE_ATLAS_SIZE, SPRITE_ATLAS_SIZE);
+        Animation[] animations = {whiteKnightIdleRight, whiteKnightIdleLeft, whiteKnightBobbingRight,
+                whiteKnightBobbingLeft, whiteKnightRecoveringIdleRight, whiteKnightRecoveringIdleLeft,
+                blackKnightIdleRight, blackKnightIdleLeft, blackKnightBobbingRight, blackKnightBobbingLeft,
+                blackPawnIdle, blackPawnBob, blackRookIdle};
+        for (Animation animation : animations) {
+            animation.packInto(spriteAtlas);
+        }
+
         //Initialise the player with an animation
-        whiteKnight = new Sprite(whiteKnightIdleRight);
+        kinematics = new KinematicsStore(16);
+        //Any level from an earlier game kept its sprites in the old store, so there is nothing to release
+        activeLevel = null;
+        whiteKnight = new Sprite(whiteKnightIdleRight, kinematics);
+        spatialAudio.setListener(whiteKnight);
 
         stoodOnDisappearingTiles = new ArrayList<>();
         tilesToReload = new ArrayList<>();
 
+        preloadLevel(1);
         initialiseGame();
         goToNextLevel();
     }
@@ -190,15 +249,15 @@ public class Game extends GameCore implements MouseListener {
         currentLevel = 0; //Progress is not saved, when 'Start' is clicked the player will start at level 1
 
         //Remove the mouse listeners which may still be running for other objects
-        removeMouseListener(gameOver);
-        removeMouseListener(controls);
-        removeMouseListener(completed);
+        removeGameMouseListener(gameOver);
+        removeGameMouseListener(controls);
+        removeGameMouseListener(completed);
 
         menu = new Menu(this);
 
         //Add mouse listeners to menu screen
-        addMouseListener(menu);
-        addMouseMotionListener(menu);
+        addGameMouseListener(menu);
+        addGameMouseMotionListener(menu);
     }
 
     /**
@@ -207,12 +266,12 @@ public class Game extends GameCore implements MouseListener {
     public void initialiseControls() {
         controls = new Controls(this);
 
-        removeMouseListener(menu);
-        removeMouseMotionListener(menu);
+        removeGameMouseListener(menu);
+        removeGameMouseMotionListener(menu);
 
         gameState = STATE.Controls;
 
-        addMouseListener(controls);
+        addGameMouseListener(controls);
     }
 
     /**
@@ -220,8 +279,8 @@ public class Game extends GameCore implements MouseListener {
      * whereas init() need only be called once at the beginning.
      */
     public void initialiseGame() {
-        removeMouseListener(menu);
-        removeMouseMotionListener(menu);
+        removeGameMouseListener(menu);
+        removeGameMouseMotionListener(menu);
 
         //Set up the initial state of the player character
         whiteKnight.setVelocityX(0);
@@ -253,7 +312,7 @@ public class Game extends GameCore implements MouseListener {
         gameOver = new GameOver(this);
 
         //Add mouse listener to game over screen
-        addMouseListener(gameOver);
+        addGameMouseListener(gameOver);
     }
 
     /**
@@ -266,7 +325,7 @@ public class Game extends GameCore implements MouseListener {
 
         completed = new Completed(this);
 
-        addMouseListener(completed);
+        addGameMouseListener(completed);
     }
 
     /**
@@ -287,7 +346,9 @@ public class Game extends GameCore implements MouseListener {
             } else if (currentLevel == 3) {
                 level3.draw(g);
             }
+            long hudStart = System.nanoTime();
             hud.draw(g);
+            getFrameProfiler().addTime(FrameProfiler.PHASE_HUD, System.nanoTime() - hudStart);
         } else if (gameState == STATE.GameOver) {
             gameOver.draw(g);
         } else if (gameState == STATE.Completed) {
@@ -316,6 +377,9 @@ public class Game extends GameCore implements MouseListener {
         } else if (gameState == STATE.Completed) {
             completed.update(elapsed);
         }
+
+        //Play the loudest of the sounds posted during this update
+        spatialAudio.flush();
     }
 
     /**
@@ -326,10 +390,11 @@ public class Game extends GameCore implements MouseListener {
      * @return true if collision occurred
      */
     public boolean boundingBoxCollision(Sprite s1, Sprite s2) {
-        return ((s1.getX() + s1.getImage().getWidth(null) > s2.getX()) &&
-                (s1.getX() < (s2.getX() + s2.getImage().getWidth(null))) &&
-                ((s1.getY() + s1.getImage().getHeight(null) > s2.getY()) &&
-                        (s1.getY() < s2.getY() + s2.getImage().getHeight(null))));
+        //Use the cached extents, which are also the boxes recorded in the broadphase
+        return ((s1.getX() + s1.getWidth() > s2.getX()) &&
+                (s1.getX() < (s2.getX() + s2.getWidth())) &&
+                ((s1.getY() + s1.getHeight() > s2.getY()) &&
+                        (s1.getY() < s2.getY() + s2.getHeight())));
     }
 
     /**
@@ -347,6 +412,7 @@ public class Game extends GameCore implements MouseListener {
         //Find out how wide and how tall a tile is
         float tileWidth = tMap.getTileWidth();
         float tileHeight = tMap.getTileHeight();
+        TileProperties props = tMap.getTileProperties();
 
         //Gets the number of tiles across and down the bottom-left corner of s is, 6 pixels in to avoid side-on
         //collisions being detected
@@ -355,7 +421,7 @@ public class Game extends GameCore implements MouseListener {
         char ch = tMap.getTileChar(xTile, yTile);
 
         //If it's a ground tile
-        if (!BACKGROUND_CHARS.contains(ch)) {
+        if (props.isSolid(ch)) {
             return true;
         }
 
@@ -366,7 +432,7 @@ public class Game extends GameCore implements MouseListener {
         ch = tMap.getTileChar(xTile, yTile);
 
         //Return true if it is a ground tile, false if not
-        return !BACKGROUND_CHARS.contains(ch);
+        return props.isSolid(ch);
     }
 
     /**
@@ -424,6 +490,7 @@ public class Game extends GameCore implements MouseListener {
         //Find out how wide and how tall a tile is
         float tileWidth = tMap.getTileWidth();
         float tileHeight = tMap.getTileHeight();
+        TileProperties props = tMap.getTileProperties();
 
         //region Top-left collisions
         //Divide s’s x coordinate by the width of a tile to get the number of tiles across the x-axis that the sprite
@@ -435,10 +502,10 @@ public class Game extends GameCore implements MouseListener {
         //The tile character at the top left of sprite s
         char ch = tMap.getTileChar(xTile, yTile);
 
-        if (!BACKGROUND_CHARS.contains(ch)) {
+        if (props.isSolid(ch)) {
             if (isOnGround(s, tMap) || sx >= tMap.getTileXC(xTile, yTile) + tileWidth - 6) {
                 if (id == ID.Player) {
-                    if (DAMAGE_CHARS.contains(ch)) {
+                    if (props.isDamage(ch)) {
                         //If the player isn't recovering...
                         if (!isRecovering) {
                             //If the player died, return
@@ -479,10 +546,10 @@ public class Game extends GameCore implements MouseListener {
         yTile = (int) (sy / tileHeight);
         ch = tMap.getTileChar(xTile, yTile);
 
-        if (!BACKGROUND_CHARS.contains(ch)) {
+        if (props.isSolid(ch)) {
             if (isOnGround(s, tMap) || sx + s.getWidth() <= tMap.getTileXC(xTile, yTile) + 6) {
                 if (id == ID.Player) {
-                    if (DAMAGE_CHARS.contains(ch)) {
+                    if (props.isDamage(ch)) {
                         //If the player isn't recovering...
                         if (!isRecovering) {
                             //If the player died, return
@@ -525,9 +592,9 @@ public class Game extends GameCore implements MouseListener {
             yTile = (int) ((sy + (s.getHeight() / 2)) / tileHeight);
             ch = tMap.getTileChar(xTile, yTile);
 
-            if (!BACKGROUND_CHARS.contains(ch)) {
+            if (props.isSolid(ch)) {
                 if (id == ID.Player) {
-                    if (DAMAGE_CHARS.contains(ch)) {
+                    if (props.isDamage(ch)) {
                         //If the player isn't recovering...
                         if (!isRecovering) {
                             //If the player died, return
@@ -556,9 +623,9 @@ public class Game extends GameCore implements MouseListener {
             yTile = (int) ((sy + s.getHeight() / 2) / tileHeight);
             ch = tMap.getTileChar(xTile, yTile);
 
-            if (!BACKGROUND_CHARS.contains(ch)) {
+            if (props.isSolid(ch)) {
                 if (id == ID.Player) {
-                    if (DAMAGE_CHARS.contains(ch)) {
+                    if (props.isDamage(ch)) {
                         if (!isRecovering) {
                             //If the player died, return
                             if (handleDamageCollision()) return;
@@ -586,8 +653,8 @@ public class Game extends GameCore implements MouseListener {
         yTile = (int) ((sy + s.getHeight()) / tileHeight);
         ch = tMap.getTileChar(xTile, yTile);
 
-        if (!BACKGROUND_CHARS.contains(ch)) {
-            if (DAMAGE_CHARS.contains(ch) && id == ID.Player) {
+        if (props.isSolid(ch)) {
+            if (props.isDamage(ch) && id == ID.Player) {
                 if (!isRecovering) {
                     //If the player died, return
                     if (handleDamageCollision()) return;
@@ -621,8 +688,8 @@ public class Game extends GameCore implements MouseListener {
         yTile = (int) ((sy + s.getHeight()) / tileHeight);
         ch = tMap.getTileChar(xTile, yTile);
 
-        if (!BACKGROUND_CHARS.contains(ch)) {
-            if (DAMAGE_CHARS.contains(ch) && id == ID.Player) {
+        if (props.isSolid(ch)) {
+            if (props.isDamage(ch) && id == ID.Player) {
                 if (!isRecovering) {
                     //If the player died, return
                     if (handleDamageCollision()) return;
@@ -692,7 +759,7 @@ public class Game extends GameCore implements MouseListener {
      */
     private void checkHandleHorseShoeCollision(TileMap tMap, ID id, int xTile, int yTile, char ch) {
         if (ch == HORSE_SHOE_CHAR && id == ID.Player) {
-            new Sound(pickupHorseshoeSoundFilepath).start();
+            mixer.play(pickupHorseshoeSound, 1, 0);
 
             tMap.setTileChar('.', xTile, yTile); //Change the horse shoe to empty space
             hud.incrementHorseShoesCollected();
@@ -744,7 +811,7 @@ public class Game extends GameCore implements MouseListener {
      */
     private void checkHandleHeartCollision(TileMap tMap, ID id, int xTile, int yTile, char ch) {
         if (ch == HEART_CHAR && id == ID.Player) {
-            new Sound(healthUpSoundFilepath).start();
+            mixer.play(healthUpSound, 1, 0);
 
             tMap.setTileChar('.', xTile, yTile);
 
@@ -761,7 +828,7 @@ public class Game extends GameCore implements MouseListener {
      * @return true if the player died, false if not
      */
     private boolean handleDamageCollision() {
-        new Sound(hitHurtSoundFilepath).start(); //Play the take damage sound
+        mixer.play(hitHurtSound, 1, 0); //Play the take damage sound
 
         hud.setHealth(hud.getHealth() - 1); //Lower the player's health by 1
 
@@ -790,167 +857,164 @@ public class Game extends GameCore implements MouseListener {
      * If there is no next level, the completed screen is displayed.
      */
     public void goToNextLevel() {
-        LinkedList<Sprite> sprites = new LinkedList<>();
-        LinkedList<ID> spriteIDs = new LinkedList<>();
+        EntityStore<Sprite> sprites = new EntityStore<>(ID.values().length, 8);
 
         //Game over screen mouse listener is removed if it is running
-        removeMouseListener(gameOver);
-        removeMouseListener(controls);
+        removeGameMouseListener(gameOver);
+        removeGameMouseListener(controls);
 
-        //If there is no current level...
-        if (currentLevel == 0) {
-            //Load the tile map
-            tMap.loadMap("maps", "Level1Map.txt");
+        //The enemies of the level being left (or restarted) are no longer needed
+        if (activeLevel != null) {
+            activeLevel.releaseEnemies();
+            activeLevel = null;
+        }
 
-            //Load the background image
-            Image imgBackground = loadImage("images/RollingHillsResized.png");
+        //Swap in the next level's tile map, background and track, which should already have been loaded
+        Image imgBackground = null;
+        Sequence song = null;
+        if (currentLevel < LEVEL_MAPS.length) {
+            int nextLevel = currentLevel + 1;
+            if (preloadedLevel != nextLevel) {
+                preloadLevel(nextLevel);
+            }
+            if (tMap != null) tMap.closeStreaming();
+            String mapfile = LEVEL_MAPS[nextLevel - 1];
+            tMap = awaitAsset(preloadedMap, mapfile, () -> {
+                //If the map can't be read either, loadMap reports it and leaves the map empty
+                TileMap map = new TileMap();
+                map.loadMap("maps", mapfile);
+                return map;
+            });
+            imgBackground = awaitAsset(preloadedBackground, LEVEL_BACKGROUND, () -> loadImage(LEVEL_BACKGROUND));
+            song = awaitAsset(preloadedSong, LEVEL_SONG, () -> PlayMIDI.loadSequence(LEVEL_SONG));
+            preloadedLevel = 0;
+        }
 
+        //If there is no current level...
+        if (currentLevel == 0) {
             //Initialise the HUD, giving the max health for the level and the number of horse shoes to collect
             hud = new HUD(this, 4, 4, 0, countHorseShoesInMap(tMap));
 
             //Set the position of the player
             whiteKnight.setPosition(tMap.getTileXC(6, 0), tMap.getTileYC(0, 8));
-            sprites.add(whiteKnight);
-            spriteIDs.add(ID.Player);
+            sprites.add(whiteKnight, ID.Player.tag());
 
             //Set the positions of the level's enemies
-            Sprite blackPawn0 = new Sprite(blackPawnBob);
+            Sprite blackPawn0 = new Sprite(blackPawnBob, kinematics);
             blackPawn0.show();
             blackPawn0.setPosition(tMap.getTileXC(12, 0), tMap.getTileYC(0, 8));
             blackPawn0.setVelocityX(0.2f);
-            sprites.add(blackPawn0);
-            spriteIDs.add(ID.EnemyBlackPawn);
+            sprites.add(blackPawn0, ID.EnemyBlackPawn.tag());
 
-            Sprite blackPawn1 = new Sprite(blackPawnBob);
+            Sprite blackPawn1 = new Sprite(blackPawnBob, kinematics);
             blackPawn1.show();
             blackPawn1.setPosition(tMap.getTileXC(40, 0), tMap.getTileYC(0, 7));
             blackPawn1.setVelocityX(0.2f);
-            sprites.add(blackPawn1);
-            spriteIDs.add(ID.EnemyBlackPawn);
+            sprites.add(blackPawn1, ID.EnemyBlackPawn.tag());
 
-            Sprite blackKnight1 = new Sprite(blackKnightBobbingLeft);
+            Sprite blackKnight1 = new Sprite(blackKnightBobbingLeft, kinematics);
             blackKnight1.show();
             blackKnight1.setPosition(tMap.getTileXC(53, 0), tMap.getTileYC(0, 7));
-            sprites.add(blackKnight1);
-            spriteIDs.add(ID.EnemyBlackKnight);
+            sprites.add(blackKnight1, ID.EnemyBlackKnight.tag());
 
-            Sprite blackKnight2 = new Sprite(blackKnightBobbingLeft);
+            Sprite blackKnight2 = new Sprite(blackKnightBobbingLeft, kinematics);
             blackKnight2.show();
             blackKnight2.setPosition(tMap.getTileXC(89, 0), tMap.getTileYC(0, 7));
-            sprites.add(blackKnight2);
-            spriteIDs.add(ID.EnemyBlackKnight);
+            sprites.add(blackKnight2, ID.EnemyBlackKnight.tag());
 
             //Play the background track
             backgroundSong = new PlayMIDI();
             try {
-                backgroundSong.play("sounds/StoneTower.mid");
+                backgroundSong.play(song);
             } catch (Exception e) {
                 e.printStackTrace();
             }
 
-            level1 = new Level(sprites, spriteIDs, tMap, imgBackground);
+            level1 = new Level(sprites, tMap, imgBackground);
+            activeLevel = level1;
             currentLevel = 1;
+            preloadLevel(2);
         } else if (currentLevel == 1) {
-            //Load the tile map
-            tMap.loadMap("maps", "Level2Map.txt");
-
-            //Load the background image
-            Image imgBackground = loadImage("images/RollingHillsResized.png");
-
             hud = new HUD(this, 4, 4, 0, countHorseShoesInMap(tMap));
 
             whiteKnight.setPosition(tMap.getTileXC(4, 0), tMap.getTileYC(0, 17));
-            sprites.add(whiteKnight);
-            spriteIDs.add(ID.Player);
+            sprites.add(whiteKnight, ID.Player.tag());
 
-            Sprite blackKnight1 = new Sprite(blackKnightBobbingLeft);
+            Sprite blackKnight1 = new Sprite(blackKnightBobbingLeft, kinematics);
             blackKnight1.show();
             blackKnight1.setPosition(tMap.getTileXC(19, 0), tMap.getTileYC(0, 4));
-            sprites.add(blackKnight1);
-            spriteIDs.add(ID.EnemyBlackKnight);
+            sprites.add(blackKnight1, ID.EnemyBlackKnight.tag());
 
-            Sprite blackPawn3 = new Sprite(blackPawnBob);
+            Sprite blackPawn3 = new Sprite(blackPawnBob, kinematics);
             blackPawn3.show();
             blackPawn3.setPosition(tMap.getTileXC(22, 0), tMap.getTileYC(0, 4));
             blackPawn3.setVelocityX(0.2f);
-            sprites.add(blackPawn3);
-            spriteIDs.add(ID.EnemyBlackPawn);
+            sprites.add(blackPawn3, ID.EnemyBlackPawn.tag());
 
-            Sprite blackRook1 = new Sprite(blackRookIdle);
+            Sprite blackRook1 = new Sprite(blackRookIdle, kinematics);
             blackRook1.show();
             blackRook1.setPosition(tMap.getTileXC(34, 0), tMap.getTileYC(0, 13));
-            sprites.add(blackRook1);
-            spriteIDs.add(ID.EnemyBlackRook);
+            sprites.add(blackRook1, ID.EnemyBlackRook.tag());
 
-            Sprite blackPawn1 = new Sprite(blackPawnBob);
+            Sprite blackPawn1 = new Sprite(blackPawnBob, kinematics);
             blackPawn1.show();
             blackPawn1.setPosition(tMap.getTileXC(48, 0), tMap.getTileYC(0, 16));
             blackPawn1.setVelocityX(0.2f);
-            sprites.add(blackPawn1);
-            spriteIDs.add(ID.EnemyBlackPawn);
+            sprites.add(blackPawn1, ID.EnemyBlackPawn.tag());
 
-            Sprite blackPawn2 = new Sprite(blackPawnBob);
+            Sprite blackPawn2 = new Sprite(blackPawnBob, kinematics);
             blackPawn2.show();
             blackPawn2.setPosition(tMap.getTileXC(51, 0), tMap.getTileYC(0, 16));
             blackPawn2.setVelocityX(0.2f);
-            sprites.add(blackPawn2);
-            spriteIDs.add(ID.EnemyBlackPawn);
+            sprites.add(blackPawn2, ID.EnemyBlackPawn.tag());
 
             backgroundSong = new PlayMIDI();
             try {
-                backgroundSong.play("sounds/StoneTower.mid");
+                backgroundSong.play(song);
             } catch (Exception e) {
                 e.printStackTrace();
             }
 
-            level2 = new Level(sprites, spriteIDs, tMap, imgBackground);
+            level2 = new Level(sprites, tMap, imgBackground);
+            activeLevel = level2;
             currentLevel = 2;
+            preloadLevel(3);
         } else if (currentLevel == 2) {
-            //Load the tile map
-            tMap.loadMap("maps", "Level3Map.txt");
-
-            //Load the background image
-            Image imgBackground = loadImage("images/RollingHillsResized.png");
-
             hud = new HUD(this, 4, 4, 0, countHorseShoesInMap(tMap));
 
             whiteKnight.setPosition(tMap.getTileXC(4, 0), tMap.getTileYC(0, 12));
-            sprites.add(whiteKnight);
-            spriteIDs.add(ID.Player);
+            sprites.add(whiteKnight, ID.Player.tag());
 
-            Sprite blackKnight1 = new Sprite(blackKnightBobbingLeft);
+            Sprite blackKnight1 = new Sprite(blackKnightBobbingLeft, kinematics);
             blackKnight1.show();
             blackKnight1.setPosition(tMap.getTileXC(6, 0), tMap.getTileYC(0, 18));
-            sprites.add(blackKnight1);
-            spriteIDs.add(ID.EnemyBlackKnight);
+            sprites.add(blackKnight1, ID.EnemyBlackKnight.tag());
 
-            Sprite blackRook1 = new Sprite(blackRookIdle);
+            Sprite blackRook1 = new Sprite(blackRookIdle, kinematics);
             blackRook1.show();
             blackRook1.setPosition(tMap.getTileXC(25, 0), tMap.getTileYC(0, 18));
-            sprites.add(blackRook1);
-            spriteIDs.add(ID.EnemyBlackRook);
+            sprites.add(blackRook1, ID.EnemyBlackRook.tag());
 
-            Sprite blackPawn1 = new Sprite(blackPawnBob);
+            Sprite blackPawn1 = new Sprite(blackPawnBob, kinematics);
             blackPawn1.show();
             blackPawn1.setPosition(tMap.getTileXC(33, 0), tMap.getTileYC(0, 16));
             blackPawn1.setVelocityX(0.2f);
-            sprites.add(blackPawn1);
-            spriteIDs.add(ID.EnemyBlackPawn);
+            sprites.add(blackPawn1, ID.EnemyBlackPawn.tag());
 
-            Sprite blackRook2 = new Sprite(blackRookIdle);
+            Sprite blackRook2 = new Sprite(blackRookIdle, kinematics);
             blackRook2.show();
             blackRook2.setPosition(tMap.getTileXC(64, 0), tMap.getTileYC(0, 14));
-            sprites.add(blackRook2);
-            spriteIDs.add(ID.EnemyBlackRook);
+            sprites.add(blackRook2, ID.EnemyBlackRook.tag());
 
             backgroundSong = new PlayMIDI();
             try {
-                backgroundSong.play("sounds/StoneTower.mid");
+                backgroundSong.play(song);
             } catch (Exception e) {
                 e.printStackTrace();
             }
 
-            level3 = new Level(sprites, spriteIDs, tMap, imgBackground);
+            level3 = new Level(sprites, tMap, imgBackground);
+            activeLevel = level3;
             currentLevel = 3;
         } else {
             initialiseCompleted();
@@ -959,8 +1023,60 @@ public class Game extends GameCore implements MouseListener {
         gameState = STATE.Game;
     }
 
+    /**
+     * Starts loading a level's tile map, background and track in the background,
+     * so that goToNextLevel() can swap them in without waiting on the disk.
+     * Anything already being preloaded for a different level is discarded.
+     *
+     * @param level The level to preload, starting from 1
+     */
+    private void preloadLevel(int level) {
+        if (level < 1 || level > LEVEL_MAPS.length || level == preloadedLevel) {
+            return;
+        }
+        if (preloadedLevel != 0) {
+            preloadedMap.cancel(false);
+            preloadedBackground.cancel(false);
+            preloadedSong.cancel(false);
+        }
+
+        preloadedLevel = level;
+        preloadedMap = assetLoader.loadMap("maps", LEVEL_MAPS[level - 1],
+                new TextureAtlas(TILE_ATLAS_SIZE, TILE_ATLAS_SIZE));
+        preloadedBackground = assetLoader.loadImage(LEVEL_BACKGROUND);
+        preloadedSong = assetLoader.submit(LEVEL_SONG, () -> PlayMIDI.loadSequence(LEVEL_SONG));
+    }
+
+    /**
+     * Waits for a preloaded asset to finish loading. If preloading it failed,
+     * it is loaded again on this thread instead.
+     *
+     * @param asset    The asset being loaded
+     * @param name     The name of the asset, for reporting problems
+     * @param fallback Loads the asset on this thread
+     * @param <T>      The type of asset
+     * @return The asset, or null if the fallback could not load it either
+     */
+    private static <T> T awaitAsset(Future<T> asset, String name, Callable<T> fallback) {
+        try {
+            return asset.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Failed to preload '" + name + "', loading it now: " + e);
+        }
+        try {
+            return fallback.call();
+        } catch (Exception e) {
+            System.err.println("Failed to load '" + name + "': " + e);
+            return null;
+        }
+    }
+
     /**
      * Override of the keyPressed event defined in GameCore to catch our own events.
+     * GameCore calls this from the game loop at the start of a tick, so it is
+     * safe to change sprites and game state here.
      *
      * @param e The event that has been generated
      */
@@ -979,6 +1095,26 @@ public class Game extends GameCore implements MouseListener {
             }
         } else if (key == KeyEvent.VK_M) {
             isDebugModeOn = !isDebugModeOn;
+            //Measure input latency while debugging, from this key press on
+            getInputLatency().setEnabled(isDebugModeOn);
+            if (isDebugModeOn) {
+                System.out.println("Sprite atlas: " + spriteAtlas.getStats());
+                if (tMap != null && tMap.getAtlas() != null) {
+                    System.out.println("Tile atlas: " + tMap.getAtlas().getStats());
+                }
+                System.out.println("Sample bank: " + SampleBank.getStats());
+                System.out.println("Spatial audio: " + spatialAudio.getPlayed() + " played, "
+                        + spatialAudio.getCulled() + " out of earshot, " + spatialAudio.getDropped() + " dropped");
+            }
+        } else if (key == KeyEvent.VK_L && isDebugModeOn) {
+            //Export the input latencies measured since debug mode was turned on
+            System.out.println("Input latency: " + getInputLatency().getStats());
+            try {
+                getInputLatency().writeCsv(INPUT_LATENCY_CSV);
+                System.out.println("Input latency written to " + INPUT_LATENCY_CSV);
+            } catch (IOException ex) {
+                System.err.println("Failed to write '" + INPUT_LATENCY_CSV + "': " + ex);
+            }
         }
 
         if (isPaused) return;
@@ -1000,6 +1136,8 @@ public class Game extends GameCore implements MouseListener {
 
     /**
      * Override of the keyReleased event defined in GameCore to catch our own events.
+     * GameCore calls this from the game loop at the start of a tick, so it is
+     * safe to change sprites and game state here.
      *
      * @param e The event that has been generated
      */
@@ -1074,6 +1212,10 @@ public class Game extends GameCore implements MouseListener {
         return whiteKnight;
     }
 
+    public int getPairsTested() {
+        return pairsTested;
+    }
+
     @Override
     public void mouseClicked(MouseEvent e) {
 
@@ -1103,11 +1245,21 @@ public class Game extends GameCore implements MouseListener {
 
         private final TileMap tMap;
 
-        private final LinkedList<Sprite> sprites;
-        private final LinkedList<ID> spriteIDs;
+        //The level's sprites, grouped by ID so that each kind of sprite is stored together. They are updated and
+        //drawn in ID order (the player, then black knights, pawns and rooks), not in the order they were added, so
+        //the player is always reached first (draw() relies on this to draw the background and tiles) and enemies
+        //of a later ID are drawn over those of an earlier one
+        private final EntityStore<Sprite> sprites;
 
         private final float[][] spriteVelocities;
 
+        //Broadphase that finds the sprites near each sprite, so only those are checked for collisions
+        private final SpatialHash spatialHash;
+        private final int[] nearbySprites;
+
+        //True once the level has been left and its enemies' kinematics slots given back
+        private boolean enemiesReleased;
+
         private long pauseTimer;
         /*
         lastPauseTimer is used to ensure that the game can be paused multiple times during the recovery process from
@@ -1116,17 +1268,18 @@ public class Game extends GameCore implements MouseListener {
         private long lastPauseTimer;
 
         private final Image imgBackground;
+        private final Image imgPause;
         private final int backgroundWidth;
         private float backgroundX, backgroundX2;
         private int previousXOffset;
 
-        public Level(LinkedList<Sprite> sprites, LinkedList<ID> spriteIDs, TileMap tMap, Image imgBackground) {
+        public Level(EntityStore<Sprite> sprites, TileMap tMap, Image imgBackground) {
             pack();
 
             this.sprites = sprites;
-            this.spriteIDs = spriteIDs;
             this.tMap = tMap;
             this.imgBackground = imgBackground;
+            imgPause = loadImage("images/PauseScreenResized.png");
 
             backgroundWidth = imgBackground.getWidth(null);
             backgroundX = 0;
@@ -1137,12 +1290,21 @@ public class Game extends GameCore implements MouseListener {
             //in the level to use when pausing and resuming
             spriteVelocities = new float[2][sprites.size()];
 
+            //Record every sprite in the broadphase, using cells the size of a tile
+            spatialHash = new SpatialHash(tMap.getTileWidth(), tMap.getTileHeight(), 256);
+            nearbySprites = new int[sprites.size()];
+            for (int i = 0; i < sprites.size(); i++) {
+                updateBroadphase(sprites.getHandleAt(i));
+            }
+
             pauseTimer = 0;
             lastPauseTimer = 0;
         }
 
         @Override
         public void draw(Graphics2D g) {
+            long drawStart = System.nanoTime();
+            long tileNanos = 0;
             int xOffset = 0;
             int yOffset = 0;
 
@@ -1152,9 +1314,9 @@ public class Game extends GameCore implements MouseListener {
             g.fillRect(getInsets().left, getInsets().top, SCREEN_WIDTH, SCREEN_HEIGHT);
 
             for (int i = 0; i < sprites.size(); i++) {
-                Sprite s = sprites.get(i);
+                Sprite s = sprites.getAt(i);
 
-                if (spriteIDs.get(i) == ID.Player) {
+                if (sprites.getTypeAt(i) == ID.Player.tag()) {
                     //Adjusts the x offset so that the player is to the left of the centre of the screen
                     xOffset = (int) (-s.getX()) + (SCREEN_WIDTH / 2) - s.getWidth();
                     //Ensures that the screen does not scroll past the bounds of the map
@@ -1220,7 +1382,9 @@ public class Game extends GameCore implements MouseListener {
                     //endregion
 
                     //Apply offsets to tile map and draw  it
+                    long tileStart = System.nanoTime();
                     tMap.draw(g, xOffset, yOffset);
+                    tileNanos = System.nanoTime() - tileStart;
 
                     //Draw the player
                     s.draw(g);
@@ -1233,8 +1397,13 @@ public class Game extends GameCore implements MouseListener {
             }
 
             if (isPaused) {
-                g.drawImage(loadImage("images/PauseScreenResized.png"), 0, 0, null);
+                g.drawImage(imgPause, 0, 0, null);
             }
+
+            //The rest of the level, i.e. the background and the sprites, counts as sprite drawing
+            FrameProfiler profiler = Game.this.getFrameProfiler();
+            profiler.addTime(FrameProfiler.PHASE_TILES, tileNanos);
+            profiler.addTime(FrameProfiler.PHASE_SPRITES, System.nanoTime() - drawStart - tileNanos);
         }
 
         @Override
@@ -1266,7 +1435,7 @@ public class Game extends GameCore implements MouseListener {
                     //Start the pause timer
                     pauseTimer = System.nanoTime();
 
-                    new Sound(pauseSoundFilepath).start();
+                    mixer.play(pauseSound, 1, 0);
                     backgroundSong.stop();
 
                     //Set whiteKnight's animation back to what it should be
@@ -1285,13 +1454,13 @@ public class Game extends GameCore implements MouseListener {
 
                     for (int i = 0; i < sprites.size(); i++) {
                         //Store the x and y velocity of the sprite before stopping it
-                        spriteVelocities[0][i] = sprites.get(i).getVelocityX();
-                        spriteVelocities[1][i] = sprites.get(i).getVelocityY();
+                        spriteVelocities[0][i] = sprites.getAt(i).getVelocityX();
+                        spriteVelocities[1][i] = sprites.getAt(i).getVelocityY();
 
                         //Set the sprite's x and y velocity to 0
-                        sprites.get(i).stop();
+                        sprites.getAt(i).stop();
 
-                        sprites.get(i).pauseAnimation();
+                        sprites.getAt(i).pauseAnimation();
 
                         isJustPaused = false;
                     }
@@ -1316,29 +1485,49 @@ public class Game extends GameCore implements MouseListener {
                     backgroundSong.resume();
 
                     for (int i = 0; i < sprites.size(); i++) {
-                        if (spriteIDs.get(i) == ID.Player) {
-                            sprites.get(i).setVelocity(0, spriteVelocities[1][i]);
+                        if (sprites.getTypeAt(i) == ID.Player.tag()) {
+                            sprites.getAt(i).setVelocity(0, spriteVelocities[1][i]);
                         } else {
                             //Set the x and y velocity of the sprite to what they were before pausing
-                            sprites.get(i).setVelocity(spriteVelocities[0][i], spriteVelocities[1][i]);
+                            sprites.getAt(i).setVelocity(spriteVelocities[0][i], spriteVelocities[1][i]);
                         }
 
-                        sprites.get(i).playAnimation();
+                        sprites.getAt(i).playAnimation();
 
                         isJustResumed = false;
                     }
                 }
+                pairsTested = 0;
+
+                //Sprites far outside the viewable area sleep, so they are neither moved nor animated
+                for (int i = 0; i < sprites.size(); i++) {
+                    Sprite s = sprites.getAt(i);
+                    s.setSleeping(s.getX() > whiteKnight.getX() + SCREEN_WIDTH * 2
+                            || s.getX() < whiteKnight.getX() - SCREEN_WIDTH * 2);
+                }
+
+                //Move all the awake sprites at once, then advance their animations. Every moved sprite
+                //is put back in the broadphase before any queries, so none of them sees last tick's cells
+                kinematics.integrate(elapsed);
+                for (int i = 0; i < sprites.size(); i++) {
+                    if (sprites.getAt(i).isSleeping()) continue;
+                    sprites.getAt(i).updateAnimation(elapsed);
+                    updateBroadphase(sprites.getHandleAt(i));
+                }
+
                 for (int i = 0; i < sprites.size(); i++) {
-                    Sprite s = sprites.get(i);
+                    Sprite s = sprites.getAt(i);
+                    int handle = sprites.getHandleAt(i);
+                    ID id = ID.fromTag(sprites.getTypeAt(i));
 
                     // Skip this sprite if it is far outside the viewable area
-                    if (s.getX() > whiteKnight.getX() + SCREEN_WIDTH * 2
-                            || s.getX() < whiteKnight.getX() - SCREEN_WIDTH * 2) {
+                    if (s.isSleeping()) {
                         continue;
                     }
 
-                    if (spriteIDs.get(i) == ID.Player) {
-                        s.update(elapsed);
+                    if (id == ID.Player) {
+                        //Keep the chunks of a streamed map around the player in memory
+                        tMap.updateStreaming(s.getX(), s.getY(), s.getVelocityX(), s.getVelocityY());
 
                         //region Gravity and ground collision
                         if (isOnGround(s, tMap) && s.getVelocityY() >= 0) {
@@ -1395,15 +1584,16 @@ public class Game extends GameCore implements MouseListener {
                             //s jumps
                             s.setVelocityY(clamp((s.getVelocityY() + 0.1f) * -7.5f, -3, 0));
 
-                            new Sound(jumpSoundFilepath).start();
+                            mixer.play(jumpSound, 1, 0);
                         }
                         //endregion
 
                         handleTileCollision(s, tMap, ID.Player);
-                    } else if (spriteIDs.get(i) == ID.EnemyBlackKnight) {
-                        Random rnd = new Random();
 
-                        s.update(elapsed);
+                        //If the player finished the level, its enemies have been released so stop here
+                        if (enemiesReleased) return;
+                    } else if (id == ID.EnemyBlackKnight) {
+                        Random rnd = new Random();
 
                         //region Gravity and ground collision
                         if (isOnGround(s, tMap) && s.getVelocityY() >= 0) {
@@ -1442,17 +1632,14 @@ public class Game extends GameCore implements MouseListener {
 
                                 //Play the jump sound at a volume that depends on the proximity of the enemy to the
                                 //player sprite (which may be silent)
-                                new FadeWithDistanceFilterSound(jumpSoundFilepath, whiteKnight,
-                                        sprites.get(i), SCREEN_WIDTH).start();
+                                spatialAudio.post(jumpSound, s.getX(), s.getY());
 
                             }
                         }
                         //endregion
 
-                        handleTileCollision(s, tMap, spriteIDs.get(i));
-                    } else if (spriteIDs.get(i) == ID.EnemyBlackPawn) {
-                        s.update(elapsed);
-
+                        handleTileCollision(s, tMap, id);
+                    } else if (id == ID.EnemyBlackPawn) {
                         //region Gravity and ground collision
                         if (isOnGround(s, tMap) && s.getVelocityY() >= 0) {
                             //Stops s from falling
@@ -1469,10 +1656,8 @@ public class Game extends GameCore implements MouseListener {
                         }
                         //endregion
 
-                        handleTileCollision(s, tMap, spriteIDs.get(i));
-                    } else if (spriteIDs.get(i) == ID.EnemyBlackRook) {
-                        s.update(elapsed);
-
+                        handleTileCollision(s, tMap, id);
+                    } else if (id == ID.EnemyBlackRook) {
                         //region Gravity and ground collision
                         if (isOnGround(s, tMap) && s.getVelocityY() >= 0) {
                             //Stops s from falling
@@ -1489,7 +1674,7 @@ public class Game extends GameCore implements MouseListener {
                         }
                         //endregion
 
-                        handleTileCollision(s, tMap, spriteIDs.get(i));
+                        handleTileCollision(s, tMap, id);
 
                         if (whiteKnight.getX() + whiteKnight.getWidth() / 2f > s.getX() + s.getWidth() / 2f) {
                             s.setVelocityX(0.075f);
@@ -1498,11 +1683,21 @@ public class Game extends GameCore implements MouseListener {
                         }
                     }
 
-                    for (int j = 1; j < sprites.size(); j++) { //j initialised to 1 to avoid checking player sprite
+                    //Find the sprites close enough to s to collide with it, in handle order. Its
+                    //tile collision may have moved it since the broadphase was refreshed above
+                    updateBroadphase(handle);
+                    int numNearby = spatialHash.query(s.getX(), s.getY(), s.getWidth(), s.getHeight(),
+                            nearbySprites);
+                    Arrays.sort(nearbySprites, 0, numNearby);
+
+                    for (int k = 0; k < numNearby; k++) {
+                        int j = nearbySprites[k];
+                        if (sprites.getType(j) == ID.Player.tag()) continue; //Avoid checking the player sprite
                         Sprite s2 = sprites.get(j);
 
                         if (s2 != s) {
-                            if (spriteIDs.get(i) == ID.Player) { //If s is the player sprite
+                            pairsTested++;
+                            if (id == ID.Player) { //If s is the player sprite
                                 //region Player on enemy collision
                                 if (!isRecovering) {
                                     if (boundingBoxCollision(s, s2)) {
@@ -1599,7 +1794,7 @@ public class Game extends GameCore implements MouseListener {
                                     }
 
                                     //If s is a blackKnight
-                                    if (spriteIDs.get(i) == ID.EnemyBlackKnight) {
+                                    if (id == ID.EnemyBlackKnight) {
                                         if (s.getVelocityX() < 0) {
                                             s.setAnimation(blackKnightBobbingLeft);
                                         } else {
@@ -1607,13 +1802,17 @@ public class Game extends GameCore implements MouseListener {
                                         }
                                     }
                                     //If s2 is a blackKnight
-                                    if (spriteIDs.get(j) == ID.EnemyBlackKnight) {
+                                    if (sprites.getType(j) == ID.EnemyBlackKnight.tag()) {
                                         if (s2.getVelocityX() < 0) {
                                             s2.setAnimation(blackKnightBobbingLeft);
                                         } else {
                                             s2.setAnimation(blackKnightBobbingRight);
                                         }
                                     }
+
+                                    //Both sprites may have been moved apart
+                                    updateBroadphase(handle);
+                                    updateBroadphase(j);
                                 }
                                 //endregion
                             }
@@ -1648,6 +1847,28 @@ public class Game extends GameCore implements MouseListener {
             }
         }
 
+        /**
+         * Gives the kinematics slots of every sprite except the player back to the store,
+         * for when the level is left.
+         */
+        public void releaseEnemies() {
+            if (enemiesReleased) return;
+            for (int i = 0; i < sprites.size(); i++) {
+                if (sprites.getAt(i) != whiteKnight) sprites.getAt(i).release();
+            }
+            enemiesReleased = true;
+        }
+
+        /**
+         * Records the current bounding box of a sprite in the broadphase.
+         *
+         * @param handle The sprite's handle in the entity store
+         */
+        private void updateBroadphase(int handle) {
+            Sprite s = sprites.get(handle);
+            spatialHash.update(handle, s.getX(), s.getY(), s.getWidth(), s.getHeight());
+        }
+
         /**
          * Checks the statuses of the disappearing tiles and makes them disappear if
          * the player has stood on them for too long.
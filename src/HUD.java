@@ -1,4 +1,7 @@
+import game2D.FrameProfiler;
 import game2D.GameCore;
+import game2D.InputLatencyRecorder;
+import game2D.TextureAtlas;
 
 import java.awt.*;
 
@@ -12,6 +15,14 @@ public class HUD extends GameCore {
 
     public static final int HUD_POS_X = 10;
     public static final int HUD_POS_Y = 32;
+
+    //The frame time graph shown in debug mode, one pixel column per frame, 4 pixels per ms
+    private static final int GRAPH_POS_X = 10;
+    private static final int GRAPH_HEIGHT = 100;
+    private static final int GRAPH_POS_Y = Game.SCREEN_HEIGHT - GRAPH_HEIGHT - 10;
+    private static final double GRAPH_PIXELS_PER_NANO = 4 / 1e6;
+    private static final Color[] PHASE_COLOURS = {Color.BLUE, new Color(0, 160, 0), Color.ORANGE, Color.MAGENTA,
+            Color.GRAY};
     private int health; //The player's health, represented by the number of filled hearts
     private int maxHealth; //The max number of hearts the player can have
     private int numHorseShoesCollected; //The number of horse shoes the player has collected in the current level
@@ -19,12 +30,18 @@ public class HUD extends GameCore {
 
     private Game game;
 
+    private final Image imgFilledHeart;
+    private final Image imgEmptyHeart;
+
     public HUD(Game game, int health, int maxHealth, int numHorseShoesCollected, int numHorseShoes) {
         this.game = game;
         this.health = health;
         this.maxHealth = maxHealth;
         this.numHorseShoesCollected = numHorseShoesCollected;
         this.numHorseShoes = numHorseShoes;
+
+        imgFilledHeart = loadImage("images/FilledHeart.png");
+        imgEmptyHeart = loadImage("images/EmptyHeart.png");
     }
 
     @Override
@@ -35,16 +52,12 @@ public class HUD extends GameCore {
         int nextHeartY = HUD_POS_Y + 14;
 
         while(heartsDrawn < health) {
-           Image imgFilledHeart = loadImage("images/FilledHeart.png");
-
            //Draw filled heart
             g.drawImage(imgFilledHeart, nextHeartX, nextHeartY, null);
             heartsDrawn++;
             nextHeartX += imgFilledHeart.getWidth(null) + 10;
         }
         while(heartsDrawn < maxHealth) {
-            Image imgEmptyHeart = loadImage("images/EmptyHeart.png");
-
             //Draw empty heart
             g.drawImage(imgEmptyHeart, nextHeartX, nextHeartY, null);
             heartsDrawn++;
@@ -63,13 +76,83 @@ public class HUD extends GameCore {
 
         if (Game.isDebugModeOn) {
             g.setColor(ColourRepository.WHITE);
-            g.fillRect(nextHeartX + 5, HUD_POS_Y + 50, 165, 65);
+            g.fillRect(nextHeartX + 5, HUD_POS_Y + 50, 165, 165);
 
             g.setColor(Color.RED);
             g.drawString("x: " + game.getWhiteKnight().getX(), nextHeartX + 10, nextHeartY + 50);
             g.drawString("y: " + game.getWhiteKnight().getY(), nextHeartX + 10, nextHeartY + 70);
-            g.drawString("FPS: " + game.getFPS(), nextHeartX + 10, nextHeartY + 90);
+            //FPS and frame times in ms over the frames in the graph
+            FrameProfiler profiler = game.getFrameProfiler();
+            g.drawString(String.format("FPS: %.1f", game.getFPS()), nextHeartX + 10, nextHeartY + 90);
+            g.drawString(String.format("p50/95/99: %.1f/%.1f/%.1f", profiler.getFrameTimeAtPercentile(50) / 1e6,
+                    profiler.getFrameTimeAtPercentile(95) / 1e6, profiler.getFrameTimeAtPercentile(99) / 1e6),
+                    nextHeartX + 10, nextHeartY + 110);
+            g.drawString("Pairs tested: " + game.getPairsTested(), nextHeartX + 10, nextHeartY + 130);
+            g.drawString("Atlas switches: " + TextureAtlas.getSurfaceSwitches(), nextHeartX + 10, nextHeartY + 150);
+
+            //Input latency in ms, from key press to the frame showing it
+            InputLatencyRecorder latency = game.getInputLatency();
+            g.drawString(String.format("Input p50/p99: %.1f/%.1f", latency.getLatencyAtPercentile(50) / 1e6,
+                    latency.getLatencyAtPercentile(99) / 1e6), nextHeartX + 10, nextHeartY + 170);
+            g.drawString(String.format("Input max: %.1f (%d)", latency.getMaxLatency() / 1e6, latency.getCount()),
+                    nextHeartX + 10, nextHeartY + 190);
+
+            drawFrameGraph(g, profiler);
+        }
+    }
+
+    /**
+     * Draws the time each of the recent frames took as a bar, oldest on the left, split into the time spent
+     * in each phase. Whatever is left of a bar above the phases is time spent elsewhere, mostly napping.
+     * Lines across the graph mark the p50, p95 and p99 frame times.
+     */
+    private void drawFrameGraph(Graphics2D g, FrameProfiler profiler) {
+        int frames = profiler.getFrameCount();
+        int bottom = GRAPH_POS_Y + GRAPH_HEIGHT;
+
+        g.setColor(ColourRepository.WHITE);
+        g.fillRect(GRAPH_POS_X, GRAPH_POS_Y, FrameProfiler.FRAME_WINDOW, GRAPH_HEIGHT);
+
+        for (int age = 0; age < frames; age++) {
+            int x = GRAPH_POS_X + FrameProfiler.FRAME_WINDOW - 1 - age;
+
+            g.setColor(Color.LIGHT_GRAY);
+            g.fillRect(x, bottom - graphHeightOf(profiler.getFrameTime(age)), 1,
+                    graphHeightOf(profiler.getFrameTime(age)));
+
+            int y = bottom;
+            for (int phase = 0; phase < FrameProfiler.PHASE_COUNT; phase++) {
+                int h = Math.min(graphHeightOf(profiler.getPhaseTime(phase, age)), y - GRAPH_POS_Y);
+                y -= h;
+                g.setColor(PHASE_COLOURS[phase]);
+                g.fillRect(x, y, 1, h);
+            }
+        }
+
+        //Mark the percentiles of the whole frame
+        int right = GRAPH_POS_X + FrameProfiler.FRAME_WINDOW;
+        String[] labels = {"p50", "p95", "p99"};
+        double[] percentiles = {50, 95, 99};
+        g.setColor(Color.RED);
+        for (int i = 0; i < labels.length; i++) {
+            int y = bottom - graphHeightOf(profiler.getFrameTimeAtPercentile(percentiles[i]));
+            g.drawLine(GRAPH_POS_X, y, right, y);
+            g.drawString(labels[i], right + 4 + 30 * i, Math.max(y, GRAPH_POS_Y + 10));
         }
+
+        //Key of the phases, with the p95 time of each in ms
+        for (int phase = 0; phase < FrameProfiler.PHASE_COUNT; phase++) {
+            g.setColor(PHASE_COLOURS[phase]);
+            g.drawString(String.format("%s %.1f", FrameProfiler.PHASE_NAMES[phase],
+                    profiler.getPhaseTimeAtPercentile(phase, 95) / 1e6), right + 100, GRAPH_POS_Y + 20 + 18 * phase);
+        }
+    }
+
+    /**
+     * @return The height in the frame graph of a time in nanoseconds, cut off at the top of the graph
+     */
+    private static int graphHeightOf(long nanos) {
+        return (int) Math.min(GRAPH_HEIGHT, nanos * GRAPH_PIXELS_PER_NANO);
     }
 
     public int getHealth() {
@@ -8,4 +8,21 @@ public enum ID {
     EnemyBlackKnight,
     EnemyBlackPawn,
     EnemyBlackRook;
+
+    private static final ID[] VALUES = values();
+
+    /**
+     * @return The type tag used for this ID in an EntityStore
+     */
+    public int tag() {
+        return ordinal();
+    }
+
+    /**
+     * @param tag A type tag from an EntityStore
+     * @return The ID with the given tag
+     */
+    public static ID fromTag(int tag) {
+        return VALUES[tag];
+    }
 }
@@ -1,41 +1,43 @@
 package game2D;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.CropImageFilter;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.util.ArrayList;
-
-import javax.swing.ImageIcon;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Animation class manages a series of images (frames) and
  * the amount of time to display each frame.
+ * <p>
+ * The frames are held in an immutable AnimationClip, which sprites share,
+ * while each sprite plays it with its own AnimationCursor. An Animation
+ * also has a cursor of its own, so it can still be played by itself.
  *
  * @author David Cairns
  */
 public class Animation {
 
-    private final ArrayList<AnimFrame> frames; // The set of animation frames
-    private int currFrameIndex; // Current frame animation is on
-    private long animTime; // Current animation time
-    private long totalDuration; // Total animation time
-    private float animSpeed = 1.0f; // Animation speed, e.g. 2 will be twice as fast
+    // The extension of the file describing the frame rectangles of a sprite sheet
+    public static final String SHEET_DESCRIPTOR_EXTENSION = ".frames";
+
+    // Frames already sliced from sprite sheets, by sheet path and grid size
+    private static final ConcurrentHashMap<String, SheetFrame[]> sheetCache =
+            new ConcurrentHashMap<String, SheetFrame[]>();
 
-    private boolean loop = true; // True if the animation should continue looping
-    private boolean looped = false; // True if 1 animation loop has been completed
-    private boolean play = true; //	True if the animation should animate
-    private int stopFrame = -1; // A frame to stop on, if < 0 it is ignored
+    private AnimationClip clip; // The frames, replaced whenever a frame is added
+    private final AnimationCursor cursor; // Where this animation is up to when played by itself
 
     /**
      * Creates a new, empty Animation.
      */
     public Animation() {
-        frames = new ArrayList<AnimFrame>();
-        totalDuration = 0;
-        looped = false;
-        start();
+        clip = AnimationClip.EMPTY;
+        cursor = new AnimationCursor(clip);
     }
 
     /**
@@ -45,18 +47,27 @@ public class Animation {
      * @param image    The image to add
      * @param duration The time it should be displayed for
      */
-    public synchronized void addFrame(Image image, long duration) {
-        totalDuration += duration;
-        frames.add(new AnimFrame(image, totalDuration));
+    public void addFrame(Image image, long duration) {
+        setClip(clip.withFrame(image, duration));
+    }
+
+    private void setClip(AnimationClip newClip) {
+        clip = newClip;
+        cursor.setClip(newClip);
+    }
+
+    /**
+     * @return The frames of this animation, to be played by a sprite's own cursor
+     */
+    public AnimationClip getClip() {
+        return clip;
     }
 
     /**
      * Starts this animation over from the beginning.
      */
-    public synchronized void start() {
-        animTime = 0;
-        currFrameIndex = 0;
-        looped = false;
+    public void start() {
+        cursor.start();
     }
 
     /**
@@ -65,36 +76,8 @@ public class Animation {
      *
      * @param elapsedTime Time that has elapsed since last call
      */
-    public synchronized void update(long elapsedTime) {
-        // If we are paused, don't update the animation
-        if (!play) return;
-
-        elapsedTime = (long) (elapsedTime * animSpeed);
-
-        if (frames.size() > 1) {
-            animTime += elapsedTime;
-
-            if (animTime >= totalDuration) {
-                if (loop) {
-                    animTime = animTime % totalDuration;
-                    currFrameIndex = 0;
-                } else {
-                    animTime = totalDuration;
-                }
-                looped = true;
-            }
-
-            while (animTime > getFrame(currFrameIndex).endTime) {
-                currFrameIndex++;
-            }
-
-            // If we hit a stopFrame, pause the animation
-            // It will be -1 if we should not stop at this point
-            if (currFrameIndex == stopFrame) {
-                play = false;
-                stopFrame = -1;
-            }
-        }
+    public void update(long elapsedTime) {
+        cursor.update(elapsedTime);
     }
 
 
@@ -104,23 +87,29 @@ public class Animation {
      *
      * @return The current image that should be displayed
      */
-    public synchronized Image getImage() {
-        if (frames.size() == 0) {
-            return null;
-        } else {
-            return getFrame(currFrameIndex).image;
-        }
+    public Image getImage() {
+        return cursor.getImage();
+    }
+
+    /**
+     * Gets this Animation's current atlas region. Returns null if this
+     * animation has no images or hasn't been packed into an atlas.
+     *
+     * @return The atlas region of the image that should be displayed
+     */
+    public TextureAtlas.Region getRegion() {
+        return cursor.getRegion();
     }
 
     /**
-     * Works out which frame to display, incorporating
-     * the offset.
+     * Packs the images of this animation's frames into an atlas so that they
+     * can be drawn from it. Images shared with other animations packed into
+     * the same atlas are only copied once.
      *
-     * @param i The frame index to get
-     * @return The animation frame corresponding to the index
+     * @param atlas The atlas to pack the frames into
      */
-    private AnimFrame getFrame(int i) {
-        return frames.get(i);
+    public void packInto(TextureAtlas atlas) {
+        setClip(clip.packedInto(atlas));
     }
 
     /**
@@ -133,10 +122,9 @@ public class Animation {
      */
     public Image getFrameImage(int i) {
 
-        if (i < 0 || i >= frames.size()) return null;
+        if (i < 0 || i >= clip.getFrameCount()) return null;
 
-        AnimFrame frame = frames.get(i);
-        return frame.image;
+        return clip.getImage(i);
     }
 
     /**
@@ -145,7 +133,7 @@ public class Animation {
      * @param shouldLoop True if it should loop continuously.
      */
     public void setLoop(boolean shouldLoop) {
-        loop = shouldLoop;
+        setClip(clip.withLoop(shouldLoop));
     }
 
     /**
@@ -154,12 +142,14 @@ public class Animation {
      * @return True if it has looped once.
      */
     public boolean hasLooped() {
-        return looped;
+        return cursor.hasLooped();
     }
-
     /**
      * Loads a complete animation from an animation sheet and adds each
      * frame in the sheet to the animation with the given frameDuration.
+     * If the sheet has a descriptor file next to it (the sheet's file name
+     * followed by ".frames"), the frame rectangles listed in it are used
+     * instead of splitting the sheet into a grid.
      *
      * @param fileName      The path to the file to load the animations from
      * @param rows          How many rows there are in the sheet
@@ -167,70 +157,121 @@ public class Animation {
      * @param frameDuration The duration of each frame
      */
     public void loadAnimationFromSheet(String fileName, int columns, int rows, int frameDuration) {
-        Image sheet = new ImageIcon(fileName).getImage();
-        Image[] images = getImagesFromSheet(sheet, columns, rows);
+        SheetFrame[] sheetFrames = getFramesFromSheet(fileName, columns, rows);
 
-        for (int i = 0; i < images.length; i++) {
-            addFrame(images[i], frameDuration);
+        for (int i = 0; i < sheetFrames.length; i++) {
+            long duration = sheetFrames[i].duration > 0 ? sheetFrames[i].duration : frameDuration;
+            addFrame(sheetFrames[i].image, duration);
         }
     }
 
-
     /**
-     * Loads a set of images from a sprite sheet so that they can be added to an animation.
-     * Courtesy of Donald Robertson.
+     * Gets the frames of a sprite sheet, slicing the sheet the first time it
+     * is asked for. Each frame is copied into its own image compatible with
+     * the screen, so frames are fully decoded and ready to draw as soon as
+     * they are loaded.
      *
-     * @param  sheet
-     * @param  rows
-     * @param  columns
-     * @return An array of images
+     * @param fileName The path to the sprite sheet
+     * @param columns  How many columns there are in the sheet, if it has no descriptor
+     * @param rows     How many rows there are in the sheet, if it has no descriptor
+     * @return The frames of the sheet
      */
-    private Image[] getImagesFromSheet(Image sheet, int columns, int rows) {
-        // basic method to achieve split of sprite sheet
-        // overloading could be used to achieve more complex things 
-        // such as sheets where all images are not the same dimensions
-        // deliberately 'over-commented' for clarity when integrating with
-        // main engine
-
-        // initialise image array to return
-        Image[] split = new Image[rows * columns];
+    private static SheetFrame[] getFramesFromSheet(String fileName, int columns, int rows) {
+        File descriptor = new File(fileName + SHEET_DESCRIPTOR_EXTENSION);
+        String key = descriptor.exists() ? fileName : fileName + ":" + columns + "x" + rows;
+
+        return sheetCache.computeIfAbsent(key, k -> {
+            Image sheet = AssetCache.getImage(fileName);
+            if (sheet.getWidth(null) <= 0) {
+                System.err.println("Failed to load sprite sheet '" + fileName + "'");
+                return new SheetFrame[0];
+            }
+            int[][] rects = descriptor.exists() ? readSheetDescriptor(descriptor)
+                    : getGridFromSheet(sheet, columns, rows);
+
+            SheetFrame[] split = new SheetFrame[rects.length];
+            for (int i = 0; i < rects.length; i++) {
+                int x = rects[i][0];
+                int y = rects[i][1];
+                int width = rects[i][2];
+                int height = rects[i][3];
+
+                BufferedImage frame = AssetCache.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+                Graphics2D g = frame.createGraphics();
+                g.drawImage(sheet, 0, 0, width, height, x, y, x + width, y + height, null);
+                g.dispose();
+
+                split[i] = new SheetFrame(frame, rects[i][4]);
+            }
+            return split;
+        });
+    }
 
-        // easiest way to count as going through sprite sheet as though it is a 2d array
-        int count = 0;
+    /**
+     * Works out the frame rectangles of a sheet split into a grid of equally sized frames,
+     * working along each row in turn. Based on code courtesy of Donald Robertson.
+     *
+     * @param sheet   The sprite sheet, which must already be loaded
+     * @param columns How many columns there are in the sheet
+     * @param rows    How many rows there are in the sheet
+     * @return The x, y, width, height and duration (0, for the default) of each frame
+     */
+    private static int[][] getGridFromSheet(Image sheet, int columns, int rows) {
+        int[][] rects = new int[rows * columns][];
 
         // initialise width & height of split up images
         int width = sheet.getWidth(null) / columns;
         int height = sheet.getHeight(null) / rows;
 
-        // for each column in each row
+        int count = 0;
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                // create an image filter
                 // top left (x) = j*width, (y) = i*height
-                // extract rectangular region of width and height from origin x,y
-                ImageFilter cropper = new CropImageFilter(j * width, i * height, width, height);
-
-                // create image source based on original sprite sheet with filter applied
-                // results in image source for cropped image being generated
-                FilteredImageSource cropped = new FilteredImageSource(sheet.getSource(), cropper);
-
-                // create a new image using generated image source and store in appropriate array element
-                split[count] = Toolkit.getDefaultToolkit().createImage(cropped);
-
-                // increment count to prevent elements being overwritten
-                count++;
+                rects[count++] = new int[]{j * width, i * height, width, height, 0};
             }
         }
+        return rects;
+    }
 
-        // return array
-        return split;
+    /**
+     * Reads the frame rectangles of a sheet from its descriptor. Each line of the
+     * descriptor holds the x, y, width and height of a frame in pixels, separated by
+     * spaces, optionally followed by the frame's duration. Blank lines and lines
+     * starting with // are skipped.
+     *
+     * @param descriptor The descriptor file
+     * @return The x, y, width, height and duration (0, for the default) of each frame
+     */
+    private static int[][] readSheetDescriptor(File descriptor) {
+        ArrayList<int[]> rects = new ArrayList<int[]>();
+        try (BufferedReader in = new BufferedReader(new FileReader(descriptor))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("//")) continue;
+
+                String[] vals = line.split("\\s+");
+                if (vals.length != 4 && vals.length != 5) {
+                    System.err.println("Incorrect frame in '" + descriptor + "': " + line);
+                    continue;
+                }
+                int[] rect = new int[5];
+                for (int i = 0; i < vals.length; i++) {
+                    rect[i] = Integer.parseInt(vals[i]);
+                }
+                rects.add(rect);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to read sheet descriptor '" + descriptor + "':" + e);
+        }
+        return rects.toArray(new int[rects.size()][]);
     }
 
     /**
      * Pause the animation.
      */
     public void pause() {
-        play = false;
+        cursor.pause();
     }
 
     /**
@@ -239,17 +280,14 @@ public class Animation {
      * @param frame
      */
     public void pauseAt(int frame) {
-        if ((frame < 0) || (frame >= frames.size()))
-            stopFrame = 0;
-        else
-            stopFrame = frame;
+        cursor.pauseAt(frame);
     }
 
     /**
      * Play the animation
      */
     public void play() {
-        play = true;
+        cursor.play();
     }
 
     /**
@@ -258,7 +296,7 @@ public class Animation {
      * @param rate The rate to animate at.
      */
     public void setAnimationSpeed(float rate) {
-        animSpeed = rate;
+        cursor.setAnimationSpeed(rate);
     }
 
     /**
@@ -267,28 +305,20 @@ public class Animation {
      * @param f The frame to shift to.
      */
     public void setAnimationFrame(int f) {
-        if (f < 0 || f >= frames.size()) return;
-        currFrameIndex = f;
+        cursor.setAnimationFrame(f);
     }
 
     /**
-     * Private class to hold information about a given
-     * animation frame.
+     * Private class to hold a frame sliced from a sprite sheet.
      */
-    private class AnimFrame {
-
-        Image image;    // The image for a frame.
-        long endTime;    // The time at which this frame ends.
-
-        /**
-         * Create a new frame with the given image and end time.
-         *
-         * @param image   The image to use
-         * @param endTime The associated end time
-         */
-        public AnimFrame(Image image, long endTime) {
+    private static class SheetFrame {
+
+        final Image image;    // The image of the frame.
+        final long duration;    // The duration given by the sheet's descriptor, 0 for the default.
+
+        SheetFrame(Image image, long duration) {
             this.image = image;
-            this.endTime = endTime;
+            this.duration = duration;
         }
     }
 }
@@ -0,0 +1,161 @@
+package game2D;
+
+import java.awt.Image;
+
+/**
+ * An AnimationClip is the frame data of an animation: the image of each
+ * frame and the time at which each frame ends, counted from the start of
+ * the clip. Clips never change once made, so one clip can be shared by any
+ * number of sprites, each playing it with its own AnimationCursor. Methods
+ * that appear to change a clip return a new one instead.
+ * <p>
+ * Finding the frame showing at a given time takes a binary search of the
+ * end times, or a single division when every frame is shown for the same
+ * time, so long clips cost no more to play than short ones.
+ */
+public final class AnimationClip {
+
+    public static final AnimationClip EMPTY =
+            new AnimationClip(new Image[0], new TextureAtlas.Region[0], new long[0], true);
+
+    private final Image[] images;
+    private final TextureAtlas.Region[] regions; // null entries for frames not in an atlas
+    private final long[] endTimes;               // The time at which each frame ends
+    private final boolean loop;                  // True if the clip starts again once it ends
+    private final long frameDuration;            // The duration of every frame if they are all the same, else 0
+
+    private AnimationClip(Image[] images, TextureAtlas.Region[] regions, long[] endTimes, boolean loop) {
+        this.images = images;
+        this.regions = regions;
+        this.endTimes = endTimes;
+        this.loop = loop;
+        this.frameDuration = uniformDuration(endTimes);
+    }
+
+    /**
+     * @return The duration every frame shares, or 0 if the frames differ in duration
+     */
+    private static long uniformDuration(long[] endTimes) {
+        if (endTimes.length == 0) return 0;
+        long duration = endTimes[0];
+        for (int i = 1; i < endTimes.length; i++) {
+            if (endTimes[i] - endTimes[i - 1] != duration) return 0;
+        }
+        return duration;
+    }
+
+    /**
+     * @param image    The image to add
+     * @param duration The time it should be displayed for
+     * @return A copy of this clip with a frame added to the end
+     */
+    public AnimationClip withFrame(Image image, long duration) {
+        int n = images.length;
+        Image[] newImages = new Image[n + 1];
+        TextureAtlas.Region[] newRegions = new TextureAtlas.Region[n + 1];
+        long[] newEndTimes = new long[n + 1];
+        System.arraycopy(images, 0, newImages, 0, n);
+        System.arraycopy(regions, 0, newRegions, 0, n);
+        System.arraycopy(endTimes, 0, newEndTimes, 0, n);
+        newImages[n] = image;
+        newEndTimes[n] = getTotalDuration() + duration;
+        return new AnimationClip(newImages, newRegions, newEndTimes, loop);
+    }
+
+    /**
+     * @param shouldLoop True if the clip should loop continuously
+     * @return A copy of this clip that does or doesn't loop
+     */
+    public AnimationClip withLoop(boolean shouldLoop) {
+        if (shouldLoop == loop) return this;
+        return new AnimationClip(images, regions, endTimes, shouldLoop);
+    }
+
+    /**
+     * Packs the images of the frames into an atlas. Images shared with other
+     * clips packed into the same atlas are only copied once.
+     *
+     * @param atlas The atlas to pack the frames into
+     * @return A copy of this clip that draws its frames from the atlas
+     */
+    public AnimationClip packedInto(TextureAtlas atlas) {
+        TextureAtlas.Region[] newRegions = new TextureAtlas.Region[images.length];
+        for (int i = 0; i < images.length; i++) {
+            newRegions[i] = atlas.add(images[i]);
+        }
+        return new AnimationClip(images, newRegions, endTimes, loop);
+    }
+
+    /**
+     * @return The number of frames in the clip
+     */
+    public int getFrameCount() {
+        return images.length;
+    }
+
+    /**
+     * @return The time the whole clip takes to play
+     */
+    public long getTotalDuration() {
+        return images.length == 0 ? 0 : endTimes[images.length - 1];
+    }
+
+    /**
+     * @return True if the clip starts again once it ends
+     */
+    public boolean isLooping() {
+        return loop;
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The image of frame 'i'
+     */
+    public Image getImage(int i) {
+        return images[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The atlas region of frame 'i', or null if it isn't in an atlas
+     */
+    public TextureAtlas.Region getRegion(int i) {
+        return regions[i];
+    }
+
+    /**
+     * @param i The index of the frame
+     * @return The time at which frame 'i' starts
+     */
+    public long getStartTime(int i) {
+        return i == 0 ? 0 : endTimes[i - 1];
+    }
+
+    /**
+     * Finds the frame showing at a time within the clip. A frame is still
+     * showing at the moment it ends.
+     *
+     * @param time The time from the start of the clip, from 0 to the total duration
+     * @return The index of the frame showing at that time
+     */
+    public int getFrameAt(long time) {
+        int last = endTimes.length - 1;
+        if (last <= 0 || time <= 0) return 0;
+
+        if (frameDuration > 0) {
+            return (int) Math.min(last, (time - 1) / frameDuration);
+        }
+
+        // Find the first frame that ends at or after the time
+        int low = 0;
+        int high = last;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (endTimes[mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,73 @@
+package game2D;
+
+import java.util.Random;
+
+/**
+ * Times how long AnimationClip.getFrameAt takes to find the frame showing
+ * at a time, against the walk from the first frame that Animation used to
+ * do, for clips of 4 to 1024 frames. Each length is timed twice: with
+ * frames of varied durations, which getFrameAt binary searches, and with
+ * frames that all last the same time, which it finds by division. Before
+ * timing, both lookups are checked to agree at every time in every clip.
+ * For example:
+ * <p>
+ * java game2D.AnimationClipBenchmark [lookups]
+ */
+public class AnimationClipBenchmark {
+
+    private static final int[] FRAME_COUNTS = {4, 16, 64, 256, 1024};
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int lookups = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+        Random random = new Random(1);
+
+        for (int frames : FRAME_COUNTS) {
+            for (int uniform = 0; uniform < 2; uniform++) {
+                AnimationClip clip = AnimationClip.EMPTY;
+                long[] endTimes = new long[frames];
+                long total = 0;
+                for (int i = 0; i < frames; i++) {
+                    long duration = (uniform == 1) ? 20 : 10 + random.nextInt(20);
+                    total += duration;
+                    endTimes[i] = total;
+                    clip = clip.withFrame(null, duration);
+                }
+
+                for (long time = 0; time <= total; time++) {
+                    if (clip.getFrameAt(time) != walk(endTimes, time))
+                        throw new IllegalStateException("Lookups disagree at " + time + " in a clip of " + frames + " frames");
+                }
+
+                // Spread the lookups over the clip rather than stepping through it in order
+                long sink = 0;
+                for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                    for (int i = 0; i < lookups; i++) sink += walk(endTimes, (i * 7919L) % total);
+                    for (int i = 0; i < lookups; i++) sink += clip.getFrameAt((i * 7919L) % total);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < lookups; i++) sink += walk(endTimes, (i * 7919L) % total);
+                long middle = System.nanoTime();
+                for (int i = 0; i < lookups; i++) sink += clip.getFrameAt((i * 7919L) % total);
+                long end = System.nanoTime();
+
+                // Printing the sink keeps the JIT from dropping the lookups
+                System.out.println(String.format("%4d frames, %-7s walk %7.1f ns, getFrameAt %7.1f ns (%d)",
+                        frames, uniform == 1 ? "uniform" : "varied", (middle - start) / (double) lookups,
+                        (end - middle) / (double) lookups, sink & 1));
+            }
+        }
+    }
+
+    /**
+     * Finds the frame showing at a time by walking forward from the first
+     * frame, as Animation did before AnimationClip.
+     *
+     * @return The index of the first frame ending at or after 'time'
+     */
+    private static int walk(long[] endTimes, long time) {
+        int i = 0;
+        while (i < endTimes.length - 1 && time > endTimes[i]) i++;
+        return i;
+    }
+}
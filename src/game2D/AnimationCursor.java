@@ -0,0 +1,184 @@
+package game2D;
+
+import java.awt.Image;
+
+/**
+ * An AnimationCursor is the playback state of one sprite's animation: how
+ * far through its clip it is, how fast it plays and whether it is paused.
+ * Sprites sharing a clip each have their own cursor, so every sprite keeps
+ * its own time however many others are playing the same clip.
+ * <p>
+ * A cursor belongs to whoever updates it and is not locked, so it should
+ * only be used from the game thread.
+ */
+public class AnimationCursor {
+
+    private AnimationClip clip;
+    private int currFrameIndex; // Current frame animation is on
+    private long animTime;      // Time since the animation started, not wrapped around the clip's duration
+    private float animSpeed = 1.0f; // Animation speed, e.g. 2 will be twice as fast
+
+    private boolean looped = false; // True if 1 animation loop has been completed
+    private boolean play = true;    // True if the animation should animate
+    private int stopFrame = -1;     // A frame to stop on, if < 0 it is ignored
+
+    /**
+     * @param clip The clip to play
+     */
+    public AnimationCursor(AnimationClip clip) {
+        this.clip = clip;
+        start();
+    }
+
+    /**
+     * @return The clip being played
+     */
+    public AnimationClip getClip() {
+        return clip;
+    }
+
+    /**
+     * Switches to playing another clip. The time played so far carries over,
+     * so switching back and forth between clips doesn't restart them.
+     *
+     * @param newClip The clip to play
+     */
+    public void setClip(AnimationClip newClip) {
+        if (newClip == clip) return;
+        clip = newClip;
+        findFrame();
+    }
+
+    /**
+     * Starts the clip over from the beginning.
+     */
+    public void start() {
+        animTime = 0;
+        currFrameIndex = 0;
+        looped = false;
+    }
+
+    /**
+     * Moves the animation on by the time that has elapsed.
+     *
+     * @param elapsedTime Time that has elapsed since last call
+     */
+    public void update(long elapsedTime) {
+        // If we are paused, don't update the animation
+        if (!play) return;
+
+        if (clip.getFrameCount() > 1) {
+            animTime += (long) (elapsedTime * animSpeed);
+            findFrame();
+
+            // If we hit a stopFrame, pause the animation
+            // It will be -1 if we should not stop at this point
+            if (currFrameIndex == stopFrame) {
+                play = false;
+                stopFrame = -1;
+            }
+        }
+    }
+
+    /**
+     * Works out the current frame from the time played.
+     */
+    private void findFrame() {
+        long total = clip.getTotalDuration();
+        if (clip.getFrameCount() <= 1 || total <= 0) {
+            currFrameIndex = 0;
+            return;
+        }
+
+        long time = animTime;
+        if (time >= total) {
+            looped = true;
+            if (clip.isLooping()) {
+                time = time % total;
+            } else {
+                time = total;
+                animTime = total;
+            }
+        }
+        currFrameIndex = clip.getFrameAt(time);
+    }
+
+    /**
+     * @return The current image that should be displayed, or null if the clip has no frames
+     */
+    public Image getImage() {
+        if (clip.getFrameCount() == 0) return null;
+        return clip.getImage(currFrameIndex);
+    }
+
+    /**
+     * @return The atlas region of the current frame, or null if the clip has no frames or isn't in an atlas
+     */
+    public TextureAtlas.Region getRegion() {
+        if (clip.getFrameCount() == 0) return null;
+        return clip.getRegion(currFrameIndex);
+    }
+
+    /**
+     * @return The index of the current frame
+     */
+    public int getFrameIndex() {
+        return currFrameIndex;
+    }
+
+    /**
+     * @return True if the clip has played through once
+     */
+    public boolean hasLooped() {
+        return looped;
+    }
+
+    /**
+     * Pause the animation.
+     */
+    public void pause() {
+        play = false;
+    }
+
+    /**
+     * Pause the animation at given 'frame'
+     *
+     * @param frame The frame to stop at
+     */
+    public void pauseAt(int frame) {
+        if ((frame < 0) || (frame >= clip.getFrameCount()))
+            stopFrame = 0;
+        else
+            stopFrame = frame;
+    }
+
+    /**
+     * Play the animation
+     */
+    public void play() {
+        play = true;
+    }
+
+    /**
+     * Change the animation 'rate'. E.g. 2 would be twice as fast.
+     *
+     * @param rate The rate to animate at.
+     */
+    public void setAnimationSpeed(float rate) {
+        animSpeed = rate;
+    }
+
+    /**
+     * Jump to the start of frame 'f'.
+     *
+     * @param f The frame to shift to.
+     */
+    public void setAnimationFrame(int f) {
+        if (f < 0 || f >= clip.getFrameCount()) return;
+        // Keep the number of times the clip has been played through
+        long total = clip.getTotalDuration();
+        long played = (total > 0 && clip.isLooping()) ? animTime - animTime % total : 0;
+        animTime = played + clip.getStartTime(f);
+        currFrameIndex = f;
+    }
+}
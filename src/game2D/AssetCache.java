@@ -0,0 +1,143 @@
+package game2D;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The AssetCache loads each image file once and shares the result between
+ * everything that asks for it. Images are converted to the format of the
+ * screen when they are loaded so that drawing them is as fast as possible.
+ * <p>
+ * Cached images are held through soft references, so the garbage collector
+ * may drop images nothing else is using if memory runs low. They are simply
+ * loaded again the next time they are asked for. It is safe to use the
+ * cache from several threads at once.
+ */
+public class AssetCache {
+
+    private static final ConcurrentHashMap<String, SoftReference<BufferedImage>> images =
+            new ConcurrentHashMap<String, SoftReference<BufferedImage>>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Gets the image stored in 'path', loading it if it isn't already cached.
+     * If the file can't be decoded, an uncached image from ImageIcon is
+     * returned instead, as GameCore.loadImage used to do.
+     *
+     * @param path The file path of the image
+     * @return The image
+     */
+    public static Image getImage(String path) {
+        SoftReference<BufferedImage> ref = images.get(path);
+        BufferedImage img = (ref == null) ? null : ref.get();
+        if (img != null) {
+            hits.incrementAndGet();
+            return img;
+        }
+
+        // Load the image inside compute() so two threads can't both load the same file
+        final BufferedImage[] result = new BufferedImage[1];
+        final boolean[] decoded = new boolean[1];
+        images.compute(path, (key, current) -> {
+            result[0] = (current == null) ? null : current.get();
+            if (result[0] != null) return current;
+
+            decoded[0] = true;
+            result[0] = load(key);
+            return (result[0] == null) ? null : new SoftReference<BufferedImage>(result[0]);
+        });
+
+        if (!decoded[0]) {
+            // Another thread loaded it while we were waiting
+            hits.incrementAndGet();
+            return result[0];
+        }
+        misses.incrementAndGet();
+        if (result[0] == null) {
+            System.err.println("Failed to decode image '" + path + "'");
+            return new ImageIcon(path).getImage();
+        }
+        return result[0];
+    }
+
+    /**
+     * Decodes an image file into an image compatible with the screen.
+     *
+     * @param path The file path of the image
+     * @return The image, or null if it couldn't be read
+     */
+    private static BufferedImage load(String path) {
+        BufferedImage src;
+        try {
+            src = ImageIO.read(new File(path));
+        } catch (IOException e) {
+            return null;
+        }
+        if (src == null) return null;
+
+        BufferedImage img = createCompatibleImage(src.getWidth(), src.getHeight(),
+                src.getColorModel().getTransparency());
+        Graphics2D g = img.createGraphics();
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Creates an image in the format of the screen, so drawing it is fast.
+     *
+     * @param width        The width of the image in pixels
+     * @param height       The height of the image in pixels
+     * @param transparency One of the Transparency constants
+     * @return The new image
+     */
+    public static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+    }
+
+    /**
+     * @return The number of requests answered from the cache
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of requests that had to load the image
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of images currently cached
+     */
+    public static int size() {
+        images.values().removeIf(ref -> ref.get() == null);
+        return images.size();
+    }
+
+    /**
+     * Removes every image from the cache.
+     */
+    public static void clear() {
+        images.clear();
+    }
+}
@@ -0,0 +1,107 @@
+package game2D;
+
+import java.awt.Image;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The AssetLoader loads assets on background threads so that the game loop
+ * doesn't stall while files are read and decoded. Each load returns a
+ * Future; calling get() on it waits for the asset only if it isn't ready yet.
+ * <p>
+ * Loads run on a small, fixed number of daemon threads with a bounded
+ * queue. If the queue is full, the thread asking for the load runs it
+ * itself. The time taken to load each asset is printed. A load that fails
+ * doesn't print anything; its exception is thrown from the Future's get().
+ */
+public class AssetLoader {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Create a loader.
+     *
+     * @param threads   The number of loading threads
+     * @param queueSize The number of loads that may wait for a thread
+     */
+    public AssetLoader(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "AssetLoader-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts loading an asset.
+     *
+     * @param name The name of the asset, used when printing how long it took
+     * @param task The work that loads the asset
+     * @param <T>  The type of asset
+     * @return A Future that will hold the asset
+     */
+    public <T> Future<T> submit(String name, Callable<T> task) {
+        return executor.submit(() -> {
+            long start = System.nanoTime();
+            T asset = task.call();
+            System.out.println(String.format("Loaded %s in %.1f ms", name, (System.nanoTime() - start) / 1000000.0));
+            return asset;
+        });
+    }
+
+    /**
+     * Starts loading a tile map, including the images of its tiles.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the map file in the map folder
+     * @return A Future that will hold the tile map
+     */
+    public Future<TileMap> loadMap(String folder, String mapfile) {
+        return loadMap(folder, mapfile, null);
+    }
+
+    /**
+     * Starts loading a tile map and packs its tile images into an atlas.
+     * The atlas should not be used by anything else until the map has loaded.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the map file in the map folder
+     * @param atlas   The atlas to pack the tile images into, or null to not pack them
+     * @return A Future that will hold the tile map
+     */
+    public Future<TileMap> loadMap(String folder, String mapfile, TextureAtlas atlas) {
+        return submit(folder + "/" + mapfile, () -> {
+            TileMap map = new TileMap();
+            // Any problems have already been reported by loadMap
+            map.loadMap(folder, mapfile);
+            if (atlas != null) map.packInto(atlas);
+            return map;
+        });
+    }
+
+    /**
+     * Starts loading an image into the AssetCache.
+     *
+     * @param path The file path of the image
+     * @return A Future that will hold the image
+     */
+    public Future<Image> loadImage(String path) {
+        return submit(path, () -> AssetCache.getImage(path));
+    }
+
+    /**
+     * Stops the loading threads once any loads already asked for are done.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
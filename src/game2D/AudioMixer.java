@@ -0,0 +1,278 @@
+package game2D;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
+
+/**
+ * The AudioMixer plays short sound effects with low latency. Samples are
+ * taken from the SampleBank once, when they are loaded, and a single thread mixes
+ * every sound that is playing into one SourceDataLine with a small buffer.
+ * <p>
+ * There is a fixed number of voices. If a sound is played while they are
+ * all busy, the quietest voice (the one that has played longest, if there
+ * is a tie) is stopped to make room for it. Playing a sound doesn't
+ * allocate anything, so it is safe to call every frame.
+ */
+public class AudioMixer implements Runnable {
+
+    public static final int DEFAULT_VOICES = 8;
+
+    // The format everything is mixed in
+    public static final float SAMPLE_RATE = 44100;
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
+
+    private static final int BLOCK_FRAMES = 256; // The frames mixed at a time, about 6ms
+    private static final int LINE_BLOCKS = 4;    // The size of the line's buffer in blocks
+
+    // The loaded sounds, indexed by sound id
+    private short[][] samples = new short[0][];
+    private int[] channels = new int[0];
+
+    // The state of each voice, all guarded by 'lock'
+    private final Object lock = new Object();
+    private final boolean[] active;
+    private final int[] voiceSound;
+    private final int[] voicePosition; // The next sample to mix, counting every channel
+    private final float[] leftGain;
+    private final float[] rightGain;
+    private final long[] startedAt;    // When each voice started, in blocks mixed
+    private long blocksMixed = 0;
+    private long voicesStolen = 0;
+
+    // Used only by the mixing thread
+    private final int[] mix = new int[BLOCK_FRAMES * 2];
+    private final byte[] output = new byte[BLOCK_FRAMES * 4];
+
+    private SourceDataLine line = null;
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    /**
+     * Create a mixer with the given number of voices.
+     *
+     * @param voices The most sounds that can play at once
+     */
+    public AudioMixer(int voices) {
+        active = new boolean[voices];
+        voiceSound = new int[voices];
+        voicePosition = new int[voices];
+        leftGain = new float[voices];
+        rightGain = new float[voices];
+        startedAt = new long[voices];
+    }
+
+    /**
+     * Decodes a sound file into memory so that it can be played. Sounds
+     * should be loaded before the mixer is started.
+     *
+     * @param path The file path of the sound
+     * @return The id to play the sound with, or -1 if it could not be loaded
+     */
+    public synchronized int load(String path) {
+        try {
+            SampleBank.Sample sample = SampleBank.get(path);
+            AudioFormat format = sample.getFormat();
+            if (format.getSampleRate() != SAMPLE_RATE || format.getChannels() > 2) {
+                System.err.println("Failed to load sound '" + path + "': the mixer needs mono or stereo at "
+                        + SAMPLE_RATE + "Hz");
+                return -1;
+            }
+
+            // Keep a copy so the sound stays loaded if the bank drops it
+            short[] decoded = new short[sample.getData().length / 2];
+            sample.asShortBuffer().get(decoded);
+
+            return addSamples(decoded, format.getChannels());
+        } catch (Exception e) {
+            System.err.println("Failed to load sound '" + path + "':" + e);
+            return -1;
+        }
+    }
+
+    /**
+     * Adds decoded samples as a new sound.
+     */
+    private int addSamples(short[] decoded, int numChannels) {
+        synchronized (lock) {
+            int id = samples.length;
+            short[][] newSamples = new short[id + 1][];
+            int[] newChannels = new int[id + 1];
+            System.arraycopy(samples, 0, newSamples, 0, id);
+            System.arraycopy(channels, 0, newChannels, 0, id);
+            newSamples[id] = decoded;
+            newChannels[id] = numChannels;
+            samples = newSamples;
+            channels = newChannels;
+            return id;
+        }
+    }
+
+    /**
+     * Opens the audio line and starts the mixing thread. If no line can be
+     * opened, the mixer stays silent and play() does nothing.
+     */
+    public void start() {
+        if (running) return;
+        try {
+            line = AudioSystem.getSourceDataLine(FORMAT);
+            line.open(FORMAT, output.length * LINE_BLOCKS);
+            line.start();
+        } catch (Exception e) {
+            System.err.println("Failed to open audio line:" + e);
+            line = null;
+            return;
+        }
+
+        running = true;
+        thread = new Thread(this, "AudioMixer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the mixing thread and closes the audio line.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(500);
+            } catch (InterruptedException ignored) {
+            }
+            thread = null;
+        }
+        if (line != null) {
+            line.stop();
+            line.close();
+            line = null;
+        }
+    }
+
+    /**
+     * Plays a loaded sound.
+     *
+     * @param soundId The id load() gave the sound
+     * @param volume  The volume to play it at, from 0 (silent) to 1
+     * @param pan     Where to play it, from -1 (left) through 0 (centre) to 1 (right)
+     */
+    public void play(int soundId, float volume, float pan) {
+        if (!running || soundId < 0 || volume <= 0) return;
+        volume = Math.min(volume, 1);
+        pan = Math.max(-1, Math.min(1, pan));
+
+        // Equal power panning keeps the loudness the same across the stereo field,
+        // scaled so that a centred sound plays at its full volume in both channels
+        double angle = (pan + 1) * Math.PI / 4;
+        float left = (float) Math.min(1, volume * Math.cos(angle) * Math.sqrt(2));
+        float right = (float) Math.min(1, volume * Math.sin(angle) * Math.sqrt(2));
+
+        synchronized (lock) {
+            if (soundId >= samples.length) return;
+
+            int voice = -1;
+            for (int i = 0; i < active.length; i++) {
+                if (!active[i]) {
+                    voice = i;
+                    break;
+                }
+            }
+            if (voice < 0) {
+                // Steal the quietest voice, or the oldest of the quietest
+                voice = 0;
+                for (int i = 1; i < active.length; i++) {
+                    float gain = leftGain[i] + rightGain[i];
+                    float quietest = leftGain[voice] + rightGain[voice];
+                    if (gain < quietest || (gain == quietest && startedAt[i] < startedAt[voice])) voice = i;
+                }
+                voicesStolen++;
+            }
+
+            active[voice] = true;
+            voiceSound[voice] = soundId;
+            voicePosition[voice] = 0;
+            leftGain[voice] = left;
+            rightGain[voice] = right;
+            startedAt[voice] = blocksMixed;
+        }
+    }
+
+    /**
+     * Stops every voice.
+     */
+    public void stopAll() {
+        synchronized (lock) {
+            for (int i = 0; i < active.length; i++) active[i] = false;
+        }
+    }
+
+    /**
+     * @return The number of voices playing
+     */
+    public int getActiveVoices() {
+        synchronized (lock) {
+            int count = 0;
+            for (boolean a : active) if (a) count++;
+            return count;
+        }
+    }
+
+    /**
+     * @return The number of voices stopped early to play another sound
+     */
+    public long getVoicesStolen() {
+        synchronized (lock) {
+            return voicesStolen;
+        }
+    }
+
+    /**
+     * The body of the mixing thread. Mixes a block at a time; writing each
+     * block to the line blocks until there is room, which sets the pace.
+     */
+    public void run() {
+        while (running) {
+            mixBlock();
+            line.write(output, 0, output.length);
+        }
+    }
+
+    /**
+     * Mixes the next block of every active voice into 'output'.
+     */
+    private void mixBlock() {
+        Arrays.fill(mix, 0);
+
+        synchronized (lock) {
+            for (int v = 0; v < active.length; v++) {
+                if (!active[v]) continue;
+
+                short[] data = samples[voiceSound[v]];
+                int stereo = channels[voiceSound[v]] == 2 ? 1 : 0;
+                int position = voicePosition[v];
+                float left = leftGain[v];
+                float right = rightGain[v];
+
+                int frames = Math.min(BLOCK_FRAMES, (data.length - position) >> stereo);
+                for (int f = 0, m = 0; f < frames; f++, m += 2) {
+                    // A mono sample feeds both channels
+                    mix[m] += (int) (data[position] * left);
+                    mix[m + 1] += (int) (data[position + stereo] * right);
+                    position += 1 + stereo;
+                }
+
+                voicePosition[v] = position;
+                if (position >= data.length) active[v] = false;
+            }
+            blocksMixed++;
+        }
+
+        for (int i = 0, b = 0; i < mix.length; i++, b += 2) {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            output[b] = (byte) sample;
+            output[b + 1] = (byte) (sample >> 8);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * An EntityStore holds the entities of a level (usually sprites) in a dense
+ * array, each with a small integer type tag. Entities of the same type are
+ * kept next to each other, so all entities of one type can be visited by
+ * looping from start(type) to end(type).
+ * <p>
+ * Because of this, looping over the whole store from index 0 to size() - 1
+ * visits the entities type by type, in order of their type tags, and not in
+ * the order they were added. Within a type the order can also change as
+ * entities are removed, since the last entity of a group is moved into the
+ * gap.
+ * <p>
+ * Each entity is given a handle when it is added. The handle stays the same
+ * for as long as the entity is in the store, even though its index in the
+ * dense array may change as other entities are added and removed. Adding
+ * and removing take time proportional to the number of types, not the
+ * number of entities.
+ *
+ * @param <T> The type of entity held
+ */
+public class EntityStore<T> {
+
+    private final int numTypes;
+
+    private Object[] entities; // The entities, grouped by type
+    private byte[] types; // The type of each entity in 'entities'
+    private int[] handles; // The handle of each entity in 'entities'
+    private int size;
+
+    // typeStart[t] is the index of the first entity of type t, typeStart[numTypes] is the size
+    private final int[] typeStart;
+
+    private int[] indexOfHandle; // The index in 'entities' of each handle, -1 if the handle is free
+    private int[] freeHandles; // Handles that have been released and can be used again
+    private int numFreeHandles;
+    private int nextHandle;
+
+    /**
+     * Create an empty store.
+     *
+     * @param numTypes The number of type tags, which must be at most 128
+     * @param capacity The number of entities to make room for initially
+     */
+    public EntityStore(int numTypes, int capacity) {
+        this.numTypes = numTypes;
+        capacity = Math.max(1, capacity);
+
+        entities = new Object[capacity];
+        types = new byte[capacity];
+        handles = new int[capacity];
+        typeStart = new int[numTypes + 1];
+
+        indexOfHandle = new int[capacity];
+        Arrays.fill(indexOfHandle, -1);
+        freeHandles = new int[capacity];
+    }
+
+    /**
+     * Adds an entity to the end of the group for its type.
+     *
+     * @param entity The entity to add
+     * @param type   The entity's type tag, from 0 to numTypes - 1
+     * @return The handle of the entity
+     */
+    public int add(T entity, int type) {
+        if (type < 0 || type >= numTypes) throw new IllegalArgumentException("Unknown entity type " + type);
+        ensureCapacity(size + 1);
+
+        int handle = numFreeHandles > 0 ? freeHandles[--numFreeHandles] : nextHandle++;
+        if (handle >= indexOfHandle.length) {
+            int oldLength = indexOfHandle.length;
+            indexOfHandle = Arrays.copyOf(indexOfHandle, oldLength * 2);
+            Arrays.fill(indexOfHandle, oldLength, indexOfHandle.length, -1);
+        }
+
+        // Open a gap at the end of this type's group by moving the first entity of
+        // every later group to the end of that group
+        int gap = size;
+        for (int t = numTypes - 1; t > type; t--) {
+            int first = typeStart[t];
+            if (first != gap) move(first, gap);
+            gap = first;
+            typeStart[t] = first + 1;
+        }
+
+        entities[gap] = entity;
+        types[gap] = (byte) type;
+        handles[gap] = handle;
+        indexOfHandle[handle] = gap;
+
+        size++;
+        typeStart[numTypes] = size;
+        return handle;
+    }
+
+    /**
+     * Removes an entity. The last entity of the same type takes its place.
+     *
+     * @param handle The handle of the entity to remove
+     */
+    public void remove(int handle) {
+        if (!contains(handle)) return;
+
+        int index = indexOfHandle[handle];
+        int type = types[index];
+
+        // Fill the gap with the last entity of the same type, then close the gap
+        // this leaves by moving the last entity of every later group back
+        int gap = index;
+        for (int t = type; t < numTypes; t++) {
+            int last = typeStart[t + 1] - 1;
+            if (last != gap) move(last, gap);
+            gap = last;
+            if (t > type) typeStart[t]--;
+        }
+
+        entities[gap] = null;
+        indexOfHandle[handle] = -1;
+        freeHandles[numFreeHandles++] = handle;
+
+        size--;
+        typeStart[numTypes] = size;
+    }
+
+    /**
+     * @param handle An entity handle
+     * @return true if the handle belongs to an entity in the store
+     */
+    public boolean contains(int handle) {
+        return handle >= 0 && handle < indexOfHandle.length && indexOfHandle[handle] >= 0;
+    }
+
+    /**
+     * @param handle The handle of an entity in the store
+     * @return The entity
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int handle) {
+        return (T) entities[indexOfHandle[handle]];
+    }
+
+    /**
+     * @param handle The handle of an entity in the store
+     * @return The entity's type tag
+     */
+    public int getType(int handle) {
+        return types[indexOfHandle[handle]];
+    }
+
+    /**
+     * @param handle The handle of an entity in the store
+     * @return The entity's current index in the dense array
+     */
+    public int indexOf(int handle) {
+        return indexOfHandle[handle];
+    }
+
+    /**
+     * @return The number of entities in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index An index from 0 to size() - 1
+     * @return The entity at the index
+     */
+    @SuppressWarnings("unchecked")
+    public T getAt(int index) {
+        return (T) entities[index];
+    }
+
+    /**
+     * @param index An index from 0 to size() - 1
+     * @return The type tag of the entity at the index
+     */
+    public int getTypeAt(int index) {
+        return types[index];
+    }
+
+    /**
+     * @param index An index from 0 to size() - 1
+     * @return The handle of the entity at the index
+     */
+    public int getHandleAt(int index) {
+        return handles[index];
+    }
+
+    /**
+     * @param type A type tag
+     * @return The index of the first entity of the type
+     */
+    public int start(int type) {
+        return typeStart[type];
+    }
+
+    /**
+     * @param type A type tag
+     * @return One past the index of the last entity of the type
+     */
+    public int end(int type) {
+        return typeStart[type + 1];
+    }
+
+    private void move(int from, int to) {
+        entities[to] = entities[from];
+        types[to] = types[from];
+        handles[to] = handles[from];
+        indexOfHandle[handles[to]] = to;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= entities.length) return;
+        int capacity = Math.max(n, entities.length * 2);
+        entities = Arrays.copyOf(entities, capacity);
+        types = Arrays.copyOf(types, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+        freeHandles = Arrays.copyOf(freeHandles, capacity);
+    }
+}
@@ -0,0 +1,142 @@
+package game2D;
+
+/**
+ * Records how long each of the most recent frames took and where the time
+ * went. The game loop marks the start of every frame, and the time spent in
+ * each phase of it (updating, drawing tiles, drawing sprites, drawing the
+ * HUD and presenting) is added as it happens. The last FRAME_WINDOW frames
+ * are kept in ring buffers of primitive arrays, and histograms of the same
+ * frames give their percentiles, so a single slow frame shows up straight
+ * away rather than being averaged out over the whole run.
+ * <p>
+ * Nothing is allocated once the profiler is made. It is not locked, so it
+ * should only be used from the game loop.
+ */
+public class FrameProfiler {
+
+    public static final int PHASE_UPDATE = 0;
+    public static final int PHASE_TILES = 1;
+    public static final int PHASE_SPRITES = 2;
+    public static final int PHASE_HUD = 3;
+    public static final int PHASE_PRESENT = 4;
+    public static final int PHASE_COUNT = 5;
+    public static final String[] PHASE_NAMES = {"Update", "Tiles", "Sprites", "HUD", "Present"};
+
+    public static final int FRAME_WINDOW = 256;                // The number of frames kept, a power of 2
+    public static final long HIGHEST_FRAME_TIME = 1000000000L; // Frames over a second are counted as a second
+    public static final int SUB_BUCKET_BITS = 6;
+
+    private final long[] frameTimes = new long[FRAME_WINDOW];
+    private final long[][] phaseTimes = new long[PHASE_COUNT][FRAME_WINDOW];
+    private final Histogram frameHistogram = new Histogram(HIGHEST_FRAME_TIME, SUB_BUCKET_BITS);
+    private final Histogram[] phaseHistograms = new Histogram[PHASE_COUNT];
+
+    private final long[] current = new long[PHASE_COUNT]; // The time spent in each phase of the frame in progress
+    private long frameStart = 0;  // The System.nanoTime() at which the frame in progress started, 0 before the first
+    private int newest = -1;      // The index of the last frame recorded
+    private int count = 0;        // The number of frames recorded, up to FRAME_WINDOW
+    private long windowNanos = 0; // The total time of the frames recorded
+
+    public FrameProfiler() {
+        for (int p = 0; p < PHASE_COUNT; p++) {
+            phaseHistograms[p] = new Histogram(HIGHEST_FRAME_TIME, SUB_BUCKET_BITS);
+        }
+    }
+
+    /**
+     * Adds time spent in a phase of the frame in progress.
+     *
+     * @param phase One of the PHASE constants
+     * @param nanos The time spent, in nanoseconds
+     */
+    public void addTime(int phase, long nanos) {
+        current[phase] += nanos;
+    }
+
+    /**
+     * Ends the frame in progress, which started at the last call, and starts
+     * the next one. The first call only starts a frame.
+     *
+     * @param now The System.nanoTime() at the boundary between the frames
+     */
+    public void endFrame(long now) {
+        if (frameStart != 0) {
+            int i = (newest + 1) & (FRAME_WINDOW - 1);
+
+            // Take the oldest frame out of the histograms once the window is full
+            if (count == FRAME_WINDOW) {
+                frameHistogram.remove(frameTimes[i]);
+                windowNanos -= frameTimes[i];
+                for (int p = 0; p < PHASE_COUNT; p++) {
+                    phaseHistograms[p].remove(phaseTimes[p][i]);
+                }
+            } else {
+                count++;
+            }
+
+            long frameTime = now - frameStart;
+            frameTimes[i] = frameTime;
+            frameHistogram.record(frameTime);
+            windowNanos += frameTime;
+            for (int p = 0; p < PHASE_COUNT; p++) {
+                phaseTimes[p][i] = current[p];
+                phaseHistograms[p].record(current[p]);
+            }
+            newest = i;
+        }
+
+        frameStart = now;
+        for (int p = 0; p < PHASE_COUNT; p++) {
+            current[p] = 0;
+        }
+    }
+
+    /**
+     * @return The number of frames recorded, up to FRAME_WINDOW
+     */
+    public int getFrameCount() {
+        return count;
+    }
+
+    /**
+     * @param age How many frames ago the frame was, where 0 is the newest
+     * @return The time the frame took, in nanoseconds
+     */
+    public long getFrameTime(int age) {
+        return frameTimes[(newest - age) & (FRAME_WINDOW - 1)];
+    }
+
+    /**
+     * @param phase One of the PHASE constants
+     * @param age   How many frames ago the frame was, where 0 is the newest
+     * @return The time spent in the phase during the frame, in nanoseconds
+     */
+    public long getPhaseTime(int phase, int age) {
+        return phaseTimes[phase][(newest - age) & (FRAME_WINDOW - 1)];
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100
+     * @return The frame time at the percentile over the frames recorded, in nanoseconds
+     */
+    public long getFrameTimeAtPercentile(double percentile) {
+        return frameHistogram.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @param phase      One of the PHASE constants
+     * @param percentile The percentile, from 0 to 100
+     * @return The time spent in the phase at the percentile over the frames recorded, in nanoseconds
+     */
+    public long getPhaseTimeAtPercentile(int phase, double percentile) {
+        return phaseHistograms[phase].getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @return The frames per second over the frames recorded
+     */
+    public float getFPS() {
+        if (windowNanos <= 0) return 0.0f;
+        return count * 1000000000.0f / windowNanos;
+    }
+}
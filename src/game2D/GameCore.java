@@ -3,7 +3,13 @@ package game2D;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.*;
 
@@ -18,17 +24,80 @@ public abstract class GameCore extends JFrame implements KeyListener {
 
     private static final long serialVersionUID = 1L;
     protected static final int FONT_SIZE = 12;
+    public static final int DEFAULT_TICK_RATE = 100;            // Updates per second in fixed timestep mode
+    public static final int DEFAULT_MAX_CATCH_UP_STEPS = 5;    // Fixed updates allowed per frame when behind
+    public static final int INPUT_QUEUE_SIZE = 256;            // Input events that can wait for the next update
 
-    private boolean stop;            // true if the game loop should continue
-    private long startTime;                // The time the game started
+    private volatile boolean stop;    // true if the game loop should continue
     private long currTime;                // The current time
     private long elapsedTime;            // Elapsed time since previous check
 
-    private long frames;                // Used to calculate frames per second (FPS)
+    private final FrameProfiler profiler = new FrameProfiler();    // Times of the most recent frames, by phase
+    private long drawNanos;                // Time spent in draw() during the frame being drawn
+
+    private boolean fixedTimestep;        // true if update() should be called at a fixed rate
+    private long tickNanos;                // The length of one fixed update step in nanoseconds
+    private int maxCatchUpSteps;        // The most fixed steps that may be run before drawing a frame
+
+    private boolean threadedRendering;    // true if frames should be presented by a separate render thread
+    private TripleBuffer<BufferedImage> frameBuffers = null;    // Completed frames waiting to be presented
+    private Thread renderThread = null;    // The thread presenting frames in threaded rendering mode
+
+    private boolean bufferStrategyPresentation;    // true to present through a page flipped BufferStrategy
+    private BufferStrategy strategy = null;    // The window's accelerated back buffers, null if not in use
 
     private BufferedImage buffer = null;    // buffer is used as a buffered image for drawing offscreen
     private Graphics2D bg = null;            // The virtual Graphics2D device associated with the above image
 
+    private final InputQueue input = new InputQueue(INPUT_QUEUE_SIZE);    // Key and mouse events waiting for the game loop
+    // The listeners the game loop hands queued mouse events to, combined with AWTEventMulticaster
+    private volatile MouseListener gameMouseListener = null;
+    private volatile MouseMotionListener gameMouseMotionListener = null;
+    // Passes each mouse event to the listeners registered when it is handled, even if an earlier one changed them
+    private final MouseAdapter mouseDispatcher = new MouseAdapter() {
+        public void mouseClicked(MouseEvent e) {
+            MouseListener l = gameMouseListener;
+            if (l != null) l.mouseClicked(e);
+        }
+
+        public void mousePressed(MouseEvent e) {
+            MouseListener l = gameMouseListener;
+            if (l != null) l.mousePressed(e);
+        }
+
+        public void mouseReleased(MouseEvent e) {
+            MouseListener l = gameMouseListener;
+            if (l != null) l.mouseReleased(e);
+        }
+
+        public void mouseEntered(MouseEvent e) {
+            MouseListener l = gameMouseListener;
+            if (l != null) l.mouseEntered(e);
+        }
+
+        public void mouseExited(MouseEvent e) {
+            MouseListener l = gameMouseListener;
+            if (l != null) l.mouseExited(e);
+        }
+
+        public void mouseMoved(MouseEvent e) {
+            MouseMotionListener l = gameMouseMotionListener;
+            if (l != null) l.mouseMoved(e);
+        }
+
+        public void mouseDragged(MouseEvent e) {
+            MouseMotionListener l = gameMouseMotionListener;
+            if (l != null) l.mouseDragged(e);
+        }
+    };
+    private final InputLatencyRecorder inputLatency = new InputLatencyRecorder();    // Key press to screen times
+
+    // In threaded rendering mode, the render thread reports which frame it last presented and when
+    private volatile long publishedFrame = 0;    // The number of the frame last handed to the render thread
+    private volatile long presentedFrame = 0;    // The number of the frame last presented, written after presentedAt
+    private volatile long presentedAt = 0;        // The System.nanoTime() at which it was presented
+    private long lastPresentedFrame = 0;        // The presented frame the game loop has already told inputLatency about
+
 
     /**
      * Default constructor for GameCore
@@ -36,9 +105,13 @@ public abstract class GameCore extends JFrame implements KeyListener {
     public GameCore() {
         stop = false;
 
-        frames = 1;
-        startTime = 1;
         currTime = 1;
+
+        fixedTimestep = false;
+        threadedRendering = false;
+        bufferStrategyPresentation = true;
+        setTickRate(DEFAULT_TICK_RATE);
+        maxCatchUpSteps = DEFAULT_MAX_CATCH_UP_STEPS;
     }
 
 
@@ -50,6 +123,96 @@ public abstract class GameCore extends JFrame implements KeyListener {
     }
 
 
+    /**
+     * Chooses between a variable timestep, where update() is given the time
+     * since the previous frame, and a fixed timestep, where update() is
+     * called at the tick rate with the same elapsed time on every call.
+     *
+     * @param fixed True to use a fixed timestep, false for a variable one
+     */
+    public void setFixedTimestep(boolean fixed) {
+        fixedTimestep = fixed;
+    }
+
+    /**
+     * @return True if the game loop is using a fixed timestep
+     */
+    public boolean isFixedTimestep() {
+        return fixedTimestep;
+    }
+
+    /**
+     * Sets how many times per second update() is called in fixed timestep
+     * mode. The step length is rounded to a whole number of milliseconds
+     * since that is the unit update() works in.
+     *
+     * @param hz The number of updates per second
+     */
+    public void setTickRate(int hz) {
+        if (hz <= 0) hz = DEFAULT_TICK_RATE;
+        long tickMillis = Math.max(1, Math.round(1000.0 / hz));
+        tickNanos = tickMillis * 1000000L;
+    }
+
+    /**
+     * @return The number of updates per second in fixed timestep mode
+     */
+    public float getTickRate() {
+        return 1000000000.0f / tickNanos;
+    }
+
+    /**
+     * Sets the most fixed updates that may be run before a frame is drawn.
+     * If the game falls further behind than this, the extra time is dropped
+     * so that a slow frame cannot cause ever longer catch up frames.
+     *
+     * @param steps The maximum number of updates per frame
+     */
+    public void setMaxCatchUpSteps(int steps) {
+        maxCatchUpSteps = Math.max(1, steps);
+    }
+
+    /**
+     * Chooses whether frames are presented to the screen by a separate render
+     * thread. When on, the game loop draws each frame into one of three
+     * buffers and carries straight on with the next update, while the render
+     * thread copies the newest completed frame to the screen. This must be
+     * set before the game loop starts.
+     *
+     * @param threaded True to present frames on a separate thread
+     */
+    public void setThreadedRendering(boolean threaded) {
+        threadedRendering = threaded;
+    }
+
+    /**
+     * @return True if frames are presented on a separate render thread
+     */
+    public boolean isThreadedRendering() {
+        return threadedRendering;
+    }
+
+    /**
+     * Chooses how frames reach the screen. When on (the default), the window
+     * gets a page flipped BufferStrategy whose back buffer is a VolatileImage
+     * in video memory, and each frame is drawn into a BufferedImage and then
+     * copied into it and flipped. When off, the BufferedImage is copied to the
+     * window's Graphics, which is the original software path. This must be set
+     * before the game loop starts.
+     *
+     * @param useStrategy True to present through a BufferStrategy
+     */
+    public void setBufferStrategyPresentation(boolean useStrategy) {
+        bufferStrategyPresentation = useStrategy;
+    }
+
+    /**
+     * @return True if frames are presented through a BufferStrategy
+     */
+    public boolean isBufferStrategyPresentation() {
+        return bufferStrategyPresentation;
+    }
+
     /**
      * Starts the game by first initialising the game via init()
      * and then calling the gameLoop()
@@ -77,19 +240,23 @@ public abstract class GameCore extends JFrame implements KeyListener {
      */
     private void init(boolean full, int xres, int yres) {
         setVisible(true);
-        addKeyListener(this);
+        // Key and mouse events are queued by the event thread and handled by the game loop before each update
+        addKeyListener(input);
+        addMouseListener(input);
+        addMouseMotionListener(input);
         setFont(new Font("Dialog", Font.PLAIN, FONT_SIZE));
     }
 
 
     /**
-     * Loads an image with the given 'fileName'
+     * Loads an image with the given 'fileName'. Images are shared through
+     * the AssetCache, so each file is only decoded once.
      *
      * @param fileName The file path to the image file that should be loaded
      * @return A reference to the Image object that was loaded
      */
     public Image loadImage(String fileName) {
-        return new ImageIcon(fileName).getImage();
+        return AssetCache.getImage(fileName);
     }
 
     /**
@@ -97,42 +264,119 @@ public abstract class GameCore extends JFrame implements KeyListener {
      *
      * This method will call your update() method followed by your draw()
      * method to display the updated game state. It implements double buffering
-     * for both full screen and windowed mode.
+     * for both full screen and windowed mode. In fixed timestep mode, update()
+     * is called as many times as needed to catch up with the clock before
+     * each frame is drawn. Key and mouse events queued since the previous
+     * update are handled just before each call to update().
      */
     public void gameLoop() {
-        startTime = System.currentTimeMillis();
-        currTime = startTime;
-        frames = 1; // Keep a note of frames for performance measure
+        long previousTime = System.nanoTime();
+        long accumulator = 0;    // Time that has passed but not yet been simulated in fixed timestep mode
+
+        currTime = previousTime / 1000000;
 
-        Graphics2D g;
         stop = false;
 
-        // Create our own buffer
-        buffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+        if (bufferStrategyPresentation) {
+            strategy = createPageFlipStrategy();
+        }
+
+        // Frames are always drawn into our own buffer first. draw() changes game state (e.g. scrolling),
+        // so it must only run once per frame, even if the strategy's back buffer is lost and has to be redone
+        buffer = createFrameBuffer();
         bg = buffer.createGraphics();
         bg.setClip(0, 0, getWidth(), getHeight());
 
-        while (!stop) {
-            elapsedTime = System.currentTimeMillis() - currTime;
-            currTime += elapsedTime;
-
-            // Call the overridden update method
-            update(elapsedTime);
-
-            // Get the current graphics device
-            g = (Graphics2D) getGraphics();
-
+        if (threadedRendering) {
+            // Two more buffers so the render thread always has a complete frame to copy
+            frameBuffers = new TripleBuffer<BufferedImage>(buffer, createFrameBuffer(), createFrameBuffer());
+            renderThread = new Thread(this::renderLoop, "Render");
+            renderThread.setDaemon(true);
+            renderThread.start();
+        }
 
-            if (g != null) {
-                draw(bg);
-                g.drawImage(buffer, null, 0, 0);
+        while (!stop) {
+            long now = System.nanoTime();
+            // Each frame runs from the start of one pass of the loop to the start of the next, nap included
+            profiler.endFrame(now);
+
+            if (threadedRendering) {
+                long frame = presentedFrame;
+                if (frame != lastPresentedFrame) {
+                    inputLatency.framePresented(frame, presentedAt);
+                    lastPresentedFrame = frame;
+                }
             }
 
-            frames++;
+            if (fixedTimestep) {
+                accumulator += now - previousTime;
+                currTime = now / 1000000;
+
+                int steps = 0;
+                while (accumulator >= tickNanos && steps < maxCatchUpSteps) {
+                    input.drain(this, mouseDispatcher, mouseDispatcher, inputLatency);
+                    update(tickNanos / 1000000);
+                    accumulator -= tickNanos;
+                    steps++;
+                }
+                profiler.addTime(FrameProfiler.PHASE_UPDATE, System.nanoTime() - now);
+
+                // Drop any time we could not catch up on rather than spiralling
+                if (accumulator >= tickNanos) accumulator %= tickNanos;
+            } else {
+                elapsedTime = now / 1000000 - currTime;
+                currTime += elapsedTime;
+
+                // Call the overridden update method
+                input.drain(this, mouseDispatcher, mouseDispatcher, inputLatency);
+                update(elapsedTime);
+                profiler.addTime(FrameProfiler.PHASE_UPDATE, System.nanoTime() - now);
+            }
+            previousTime = now;
+
+            TextureAtlas.beginFrame();
+            // Everything from here to the nap, apart from draw(), is the cost of presenting the frame
+            long presentStart = System.nanoTime();
+            drawNanos = 0;
+            if (threadedRendering) {
+                // Draw into the back buffer and hand it over to the render thread
+                timedDraw(bg);
+                bg.dispose();
+                long frame = inputLatency.frameDrawn();
+                frameBuffers.publish();
+                // Set after publishing, so the render thread can only think it has an older frame than it does
+                publishedFrame = frame;
+                LockSupport.unpark(renderThread);
+
+                buffer = frameBuffers.getBack();
+                bg = buffer.createGraphics();
+                bg.setClip(0, 0, getWidth(), getHeight());
+            } else if (strategy != null) {
+                timedDraw(bg);
+                drawToStrategy(buffer);
+                inputLatency.framePresented(inputLatency.frameDrawn(), System.nanoTime());
+            } else {
+                // Get the current graphics device
+                Graphics2D g = (Graphics2D) getGraphics();
+
+
+                if (g != null) {
+                    timedDraw(bg);
+                    g.drawImage(buffer, null, 0, 0);
+                    g.dispose();
+                    inputLatency.framePresented(inputLatency.frameDrawn(), System.nanoTime());
+                }
+            }
+            profiler.addTime(FrameProfiler.PHASE_PRESENT, System.nanoTime() - presentStart - drawNanos);
 
-            // take a nap
+            // take a nap, in fixed timestep mode until the next update is due
+            long napTime = 10;
+            if (fixedTimestep) {
+                long untilNextTick = tickNanos - (accumulator + System.nanoTime() - now);
+                napTime = Math.max(1, (untilNextTick + 999999) / 1000000);
+            }
             try {
-                Thread.sleep(10);
+                Thread.sleep(napTime);
             }
             catch (InterruptedException ex) {
             }
@@ -141,17 +385,161 @@ public abstract class GameCore extends JFrame implements KeyListener {
     }
 
     /**
-     * @return The current frames per second (FPS)
+     * The body of the render thread used in threaded rendering mode. Waits
+     * for the game loop to publish a frame and then copies it to the screen.
+     */
+    private void renderLoop() {
+        while (!stop) {
+            if (!frameBuffers.poll()) {
+                LockSupport.parkNanos(5000000);
+                continue;
+            }
+            long frame = publishedFrame;
+
+            if (strategy != null) {
+                drawToStrategy(frameBuffers.getFront());
+            } else {
+                Graphics2D g = (Graphics2D) getGraphics();
+                if (g != null) {
+                    g.drawImage(frameBuffers.getFront(), null, 0, 0);
+                    g.dispose();
+                }
+            }
+
+            // Tell the game loop, which owns inputLatency, that the frame is on screen
+            presentedAt = System.nanoTime();
+            presentedFrame = frame;
+        }
+    }
+
+    /**
+     * Creates a two buffer strategy for this window, asking for page
+     * flipping with accelerated buffers first and falling back to whatever
+     * the system can provide.
+     *
+     * @return The window's buffer strategy, or null if one couldn't be made
+     */
+    private BufferStrategy createPageFlipStrategy() {
+        if (!isDisplayable()) return null;
+
+        BufferCapabilities flipping = new BufferCapabilities(new ImageCapabilities(true),
+                new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED);
+        try {
+            createBufferStrategy(2, flipping);
+        } catch (AWTException ex) {
+            createBufferStrategy(2);
+        }
+        return getBufferStrategy();
+    }
+
+    /**
+     * Copies a completed frame into the buffer strategy's back buffer and
+     * shows it. The back buffer is a VolatileImage, so if its contents are
+     * lost while copying (e.g. the display mode changes) the frame is copied
+     * again; draw() is never called a second time for the same frame.
+     *
+     * @param frame The completed frame to copy
+     */
+    private void drawToStrategy(BufferedImage frame) {
+        do {
+            do {
+                Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                g.setClip(0, 0, getWidth(), getHeight());
+                g.drawImage(frame, null, 0, 0);
+                g.dispose();
+            } while (strategy.contentsRestored());
+
+            strategy.show();
+        } while (strategy.contentsLost());
+
+        // Sync the display on some systems (on Linux, this fixes event queue problems)
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    /**
+     * @return A new image of the same size as the window to draw frames into
+     */
+    private BufferedImage createFrameBuffer() {
+        return new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Calls draw(), adding the time it takes to the time spent drawing this frame.
+     */
+    private void timedDraw(Graphics2D g) {
+        long start = System.nanoTime();
+        draw(g);
+        drawNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return The frames per second (FPS) over the last FrameProfiler.FRAME_WINDOW frames
      */
     public float getFPS() {
-        if (currTime - startTime <= 0) return 0.0f;
-        return (float) frames / ((currTime - startTime) / 1000.0f);
+        return profiler.getFPS();
+    }
+
+    /**
+     * @return The profiler timing the phases of the most recent frames
+     */
+    public FrameProfiler getFrameProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return The recorder measuring the time from a key press to the frame that shows it
+     */
+    public InputLatencyRecorder getInputLatency() {
+        return inputLatency;
+    }
+
+    /**
+     * @return The queue passing key and mouse events from the event thread to the game loop
+     */
+    public InputQueue getInputQueue() {
+        return input;
+    }
+
+    /**
+     * Adds a listener for mouse button events that is called by the game
+     * loop just before update(), like the key handlers, rather than by the
+     * event thread as a listener added with addMouseListener() would be.
+     *
+     * @param l The listener to add, ignored if null
+     */
+    public void addGameMouseListener(MouseListener l) {
+        gameMouseListener = AWTEventMulticaster.add(gameMouseListener, l);
+    }
+
+    /**
+     * @param l A listener added with addGameMouseListener(), ignored if null or not added
+     */
+    public void removeGameMouseListener(MouseListener l) {
+        gameMouseListener = AWTEventMulticaster.remove(gameMouseListener, l);
+    }
+
+    /**
+     * Adds a listener for mouse movement that is called by the game loop
+     * just before update(), like the key handlers.
+     *
+     * @param l The listener to add, ignored if null
+     */
+    public void addGameMouseMotionListener(MouseMotionListener l) {
+        gameMouseMotionListener = AWTEventMulticaster.add(gameMouseMotionListener, l);
+    }
+
+    /**
+     * @param l A listener added with addGameMouseMotionListener(), ignored if null or not added
+     */
+    public void removeGameMouseMotionListener(MouseMotionListener l) {
+        gameMouseMotionListener = AWTEventMulticaster.remove(gameMouseMotionListener, l);
     }
 
     /**
      * Handles the keyReleased event to check for the 'Escape' key being
      * pressed. If you override this method, make sure you allow the user
-     * to stop the game.
+     * to stop the game. Like the other key handlers, it is called by the
+     * game loop just before update(), not by the event thread.
      */
     public void keyReleased(KeyEvent e) {
         if (e.getKeyCode() == KeyEvent.VK_ESCAPE) stop();
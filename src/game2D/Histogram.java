@@ -0,0 +1,161 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * A Histogram counts how often values fall in each of a fixed set of
+ * buckets, so that percentiles can be read off it without keeping every
+ * value. As in HdrHistogram, small values each get a bucket of their own
+ * and larger values share buckets whose width doubles with each power of
+ * two, so every bucket is within the same small fraction of the values in
+ * it. With 7 sub-bucket bits, for example, values are kept to within about
+ * 1.5%.
+ * <p>
+ * Recording and removing values take a few shifts and an array increment
+ * and allocate nothing. A histogram is not locked, so it should only be
+ * used from one thread.
+ */
+public class Histogram {
+
+    private final int subBucketBits;
+    private final int subBucketCount;     // Values below this each have a bucket of their own
+    private final int subBucketHalfCount; // The number of buckets per power of two above that
+    private final long highestTrackableValue;
+    private final long[] counts;
+    private long totalCount = 0;
+
+    /**
+     * @param highestTrackableValue The largest value to tell apart from others; larger values are counted with it
+     * @param subBucketBits         The number of bits of each value kept, from 2 to 16
+     */
+    public Histogram(long highestTrackableValue, int subBucketBits) {
+        if (subBucketBits < 2 || subBucketBits > 16)
+            throw new IllegalArgumentException("Histogram sub-bucket bits must be from 2 to 16, not " + subBucketBits);
+        if (highestTrackableValue < 1)
+            throw new IllegalArgumentException("Histogram highest trackable value must be positive");
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.subBucketHalfCount = subBucketCount >> 1;
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new long[indexOf(highestTrackableValue) + 1];
+    }
+
+    /**
+     * @param value A value, from 0 to the highest trackable value
+     * @return The index of the bucket holding the value
+     */
+    private int indexOf(long value) {
+        if (value < subBucketCount) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - subBucketBits + 1;
+        return subBucketCount + (msb - subBucketBits) * subBucketHalfCount
+                + (int) ((value >> shift) - subBucketHalfCount);
+    }
+
+    /**
+     * @param index The index of a bucket
+     * @return The smallest value held in the bucket
+     */
+    private long lowestValueAt(int index) {
+        if (index < subBucketCount) return index;
+        int offset = index - subBucketCount;
+        long subBucket = offset % subBucketHalfCount + subBucketHalfCount;
+        return subBucket << (offset / subBucketHalfCount + 1);
+    }
+
+    private int clampedIndexOf(long value) {
+        return indexOf(Math.max(0, Math.min(value, highestTrackableValue)));
+    }
+
+    /**
+     * Counts a value. Negative values are counted as 0 and values above the
+     * highest trackable value are counted as that.
+     *
+     * @param value The value to count
+     */
+    public void record(long value) {
+        counts[clampedIndexOf(value)]++;
+        totalCount++;
+    }
+
+    /**
+     * Takes back a value counted earlier, e.g. when it drops out of a
+     * rolling window.
+     *
+     * @param value The value to take back
+     */
+    public void remove(long value) {
+        int i = clampedIndexOf(value);
+        if (counts[i] == 0) return;
+        counts[i]--;
+        totalCount--;
+    }
+
+    /**
+     * Removes every value.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+    }
+
+    /**
+     * @return The number of values counted
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * Gets the value at or below which the given percentage of the counted
+     * values lie. The value given is the largest one that shares a bucket
+     * with it, so the result is never lower than the true percentile.
+     *
+     * @param percentile The percentile, from 0 to 100
+     * @return The value at the percentile, or 0 if nothing has been counted
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) return getBucketHighestValue(i);
+        }
+        return highestTrackableValue;
+    }
+
+    /**
+     * @return The largest value counted, to within the histogram's precision, or 0 if nothing has been counted
+     */
+    public long getMax() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] != 0) return getBucketHighestValue(i);
+        }
+        return 0;
+    }
+
+    /**
+     * @return The number of buckets, for walking through them in order
+     */
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    /**
+     * @param index The index of a bucket
+     * @return The number of values counted in the bucket
+     */
+    public long getCountAt(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param index The index of a bucket
+     * @return The largest value held in the bucket
+     */
+    public long getBucketHighestValue(int index) {
+        if (index == counts.length - 1) return highestTrackableValue;
+        return lowestValueAt(index + 1) - 1;
+    }
+}
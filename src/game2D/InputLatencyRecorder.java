@@ -0,0 +1,189 @@
+package game2D;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Measures how long it takes for a key press to reach the screen. Each key
+ * event is stamped when the event thread queues it, tagged with the frame
+ * drawn after the update that handles it, and counted once that frame has
+ * been presented. The time from queuing to presenting is the input latency;
+ * the time from queuing to the update is kept as well, to show how much of
+ * it is spent waiting for the next tick.
+ * <p>
+ * Nothing is recorded until the recorder is enabled. It is not locked, so
+ * it should only be used from the game loop.
+ */
+public class InputLatencyRecorder {
+
+    public static final long HIGHEST_LATENCY = 10000000000L; // Latencies above 10s are counted as 10s
+    public static final int SUB_BUCKET_BITS = 7;
+    public static final int MAX_PENDING_EVENTS = 64;         // Events that can wait for their frame to be presented
+
+    private final Histogram latency = new Histogram(HIGHEST_LATENCY, SUB_BUCKET_BITS);
+    private final Histogram queueWait = new Histogram(HIGHEST_LATENCY, SUB_BUCKET_BITS);
+    private long maxLatency = 0; // The exact largest latency, which the histogram only knows roughly
+
+    // The events handled but not yet shown, with the frame that will show each of them
+    private final long[] pendingQueued = new long[MAX_PENDING_EVENTS];
+    private final long[] pendingFrame = new long[MAX_PENDING_EVENTS];
+    private int pendingCount = 0;
+
+    private long framesDrawn = 0;
+    private long untracked = 0; // Events dropped because too many were waiting
+    private boolean enabled = false;
+
+    /**
+     * Starts or stops recording. Starting clears anything recorded before.
+     *
+     * @param on True to record latencies
+     */
+    public void setEnabled(boolean on) {
+        if (on && !enabled) reset();
+        enabled = on;
+    }
+
+    /**
+     * @return True if latencies are being recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Notes that an event has been handled by the game loop. It will be
+     * counted once the next frame drawn has been presented.
+     *
+     * @param queuedNanos   The System.nanoTime() at which the event was queued
+     * @param consumedNanos The System.nanoTime() at which the event was handled
+     */
+    public void eventConsumed(long queuedNanos, long consumedNanos) {
+        if (!enabled) return;
+        queueWait.record(consumedNanos - queuedNanos);
+        if (pendingCount == MAX_PENDING_EVENTS) {
+            untracked++;
+            return;
+        }
+        pendingQueued[pendingCount] = queuedNanos;
+        pendingFrame[pendingCount] = framesDrawn + 1;
+        pendingCount++;
+    }
+
+    /**
+     * Notes that a frame has been drawn.
+     *
+     * @return The number of the frame, to pass to framePresented() once it is on screen
+     */
+    public long frameDrawn() {
+        return ++framesDrawn;
+    }
+
+    /**
+     * Counts every waiting event shown by a frame that has been presented.
+     * A frame shows the events handled before it was drawn, so presenting
+     * a frame also counts the events of any earlier frames it replaced.
+     *
+     * @param frame          The number frameDrawn() gave the frame
+     * @param presentedNanos The System.nanoTime() at which the frame reached the screen
+     */
+    public void framePresented(long frame, long presentedNanos) {
+        int kept = 0;
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingFrame[i] <= frame) {
+                long nanos = presentedNanos - pendingQueued[i];
+                latency.record(nanos);
+                maxLatency = Math.max(maxLatency, nanos);
+            } else {
+                pendingQueued[kept] = pendingQueued[i];
+                pendingFrame[kept] = pendingFrame[i];
+                kept++;
+            }
+        }
+        pendingCount = kept;
+    }
+
+    /**
+     * Clears everything recorded.
+     */
+    public void reset() {
+        latency.reset();
+        queueWait.reset();
+        maxLatency = 0;
+        pendingCount = 0;
+        untracked = 0;
+    }
+
+    /**
+     * @return The number of events counted
+     */
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100
+     * @return The input latency at the percentile, in nanoseconds
+     */
+    public long getLatencyAtPercentile(double percentile) {
+        // The histogram gives the top of the bucket, which can be above the real maximum
+        return Math.min(latency.getValueAtPercentile(percentile), maxLatency);
+    }
+
+    /**
+     * @return The largest input latency, in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100
+     * @return The time events waited for an update at the percentile, in nanoseconds
+     */
+    public long getQueueWaitAtPercentile(double percentile) {
+        return queueWait.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @return The number of events not counted because too many were waiting to be presented
+     */
+    public long getUntracked() {
+        return untracked;
+    }
+
+    /**
+     * @return A one line summary of the latencies recorded
+     */
+    public String getStats() {
+        return String.format("%d events, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms, queue wait p50 %.1f ms, p99 %.1f ms",
+                getCount(), getLatencyAtPercentile(50) / 1e6, getLatencyAtPercentile(99) / 1e6, maxLatency / 1e6,
+                getQueueWaitAtPercentile(50) / 1e6, getQueueWaitAtPercentile(99) / 1e6);
+    }
+
+    /**
+     * Writes the percentile distribution of both latencies to a CSV file, one
+     * row per histogram bucket that has anything in it.
+     *
+     * @param path The path of the file to write
+     * @throws IOException If the file can't be written
+     */
+    public void writeCsv(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(path, "UTF-8")) {
+            out.println("measure,value_ms,percentile,count,total_count");
+            writeCsv(out, "input_to_present", latency);
+            writeCsv(out, "queue_wait", queueWait);
+        }
+    }
+
+    private static void writeCsv(PrintWriter out, String measure, Histogram histogram) {
+        long seen = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            long count = histogram.getCountAt(i);
+            if (count == 0) continue;
+            seen += count;
+            out.printf(Locale.ROOT, "%s,%.3f,%.4f,%d,%d%n", measure, histogram.getBucketHighestValue(i) / 1e6,
+                    100.0 * seen / histogram.getCount(), count, seen);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package game2D;
+
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An InputQueue passes key and mouse events from the AWT event thread to
+ * the game loop. It is added to a window as its key, mouse and mouse motion
+ * listener, so the event thread only ever appends events to a ring buffer,
+ * stamped with the time they arrived. The game loop drains the buffer at
+ * the start of each tick and hands the events to its own listeners in the
+ * order they happened, so input handlers change game state from the game
+ * loop rather than racing it on the event thread.
+ * <p>
+ * There must only be one producer thread and one consumer thread. Neither
+ * waits for the other, and nothing is allocated once the queue is made.
+ * If the buffer is full, new events are dropped and counted.
+ */
+public class InputQueue implements KeyListener, MouseListener, MouseMotionListener {
+
+    private final InputEvent[] events;
+    private final long[] times;    // The System.nanoTime() at which each event was queued
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(); // The next event to drain, only advanced by the consumer
+    private final AtomicLong tail = new AtomicLong(); // The next free slot, only advanced by the producer
+
+    private volatile long dropped = 0; // Events lost because the buffer was full, only changed by the producer
+    private long lastEventTime = 0;    // The time the last drained event was queued
+
+    /**
+     * @param capacity The number of events the buffer holds, which must be a power of 2
+     */
+    public InputQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Input queue capacity must be a power of 2, not " + capacity);
+        events = new InputEvent[capacity];
+        times = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Queues an event. Only call from the producer thread.
+     *
+     * @param e The event to queue
+     * @return false if the buffer was full and the event was dropped
+     */
+    public boolean offer(InputEvent e) {
+        long t = tail.get();
+        if (t - head.get() == events.length) {
+            dropped++;
+            return false;
+        }
+        int i = (int) t & mask;
+        events[i] = e;
+        times[i] = System.nanoTime();
+        // Publish the slot only once it has been filled in
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Hands every queued key event to a listener, oldest first, and
+     * discards any mouse events. Only call from the consumer thread.
+     *
+     * @param listener The listener to handle the key events
+     * @return The number of events drained
+     */
+    public int drain(KeyListener listener) {
+        return drain(listener, null, null, null);
+    }
+
+    /**
+     * Hands every queued event to the listener for its kind, oldest first,
+     * telling a latency recorder about each key event as it is handled.
+     * Events with no listener for their kind are discarded. Only call from
+     * the consumer thread.
+     *
+     * @param keys    The listener to handle key events, or null
+     * @param mouse   The listener to handle mouse button, enter and exit events, or null
+     * @param motion  The listener to handle mouse move and drag events, or null
+     * @param latency The recorder to tell, or null
+     * @return The number of events drained
+     */
+    public int drain(KeyListener keys, MouseListener mouse, MouseMotionListener motion,
+                     InputLatencyRecorder latency) {
+        long start = head.get();
+        long t = tail.get();
+        for (long h = start; h < t; h++) {
+            int i = (int) h & mask;
+            InputEvent e = events[i];
+            events[i] = null;
+            lastEventTime = times[i];
+            head.lazySet(h + 1);
+
+            if (e instanceof KeyEvent) {
+                if (keys == null) continue;
+                if (latency != null) latency.eventConsumed(lastEventTime, System.nanoTime());
+                dispatch((KeyEvent) e, keys);
+            } else if (e instanceof MouseEvent) {
+                dispatch((MouseEvent) e, mouse, motion);
+            }
+        }
+        return (int) (t - start);
+    }
+
+    private static void dispatch(KeyEvent e, KeyListener listener) {
+        switch (e.getID()) {
+            case KeyEvent.KEY_PRESSED:
+                listener.keyPressed(e);
+                break;
+            case KeyEvent.KEY_RELEASED:
+                listener.keyReleased(e);
+                break;
+            case KeyEvent.KEY_TYPED:
+                listener.keyTyped(e);
+                break;
+        }
+    }
+
+    private static void dispatch(MouseEvent e, MouseListener mouse, MouseMotionListener motion) {
+        switch (e.getID()) {
+            case MouseEvent.MOUSE_CLICKED:
+                if (mouse != null) mouse.mouseClicked(e);
+                break;
+            case MouseEvent.MOUSE_PRESSED:
+                if (mouse != null) mouse.mousePressed(e);
+                break;
+            case MouseEvent.MOUSE_RELEASED:
+                if (mouse != null) mouse.mouseReleased(e);
+                break;
+            case MouseEvent.MOUSE_ENTERED:
+                if (mouse != null) mouse.mouseEntered(e);
+                break;
+            case MouseEvent.MOUSE_EXITED:
+                if (mouse != null) mouse.mouseExited(e);
+                break;
+            case MouseEvent.MOUSE_MOVED:
+                if (motion != null) motion.mouseMoved(e);
+                break;
+            case MouseEvent.MOUSE_DRAGGED:
+                if (motion != null) motion.mouseDragged(e);
+                break;
+        }
+    }
+
+    /**
+     * @return The System.nanoTime() at which the last drained event was queued, or 0 if there hasn't been one.
+     * Only call from the consumer thread.
+     */
+    public long getLastEventTime() {
+        return lastEventTime;
+    }
+
+    /**
+     * @return The number of events dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public void keyPressed(KeyEvent e) {
+        offer(e);
+    }
+
+    public void keyReleased(KeyEvent e) {
+        offer(e);
+    }
+
+    public void keyTyped(KeyEvent e) {
+        offer(e);
+    }
+
+    public void mouseClicked(MouseEvent e) {
+        offer(e);
+    }
+
+    public void mousePressed(MouseEvent e) {
+        offer(e);
+    }
+
+    public void mouseReleased(MouseEvent e) {
+        offer(e);
+    }
+
+    public void mouseEntered(MouseEvent e) {
+        offer(e);
+    }
+
+    public void mouseExited(MouseEvent e) {
+        offer(e);
+    }
+
+    public void mouseMoved(MouseEvent e) {
+        offer(e);
+    }
+
+    public void mouseDragged(MouseEvent e) {
+        offer(e);
+    }
+}
@@ -0,0 +1,130 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * A KinematicsStore holds the position, velocity and size of a group of
+ * sprites in parallel arrays, one slot per sprite. Keeping the values for
+ * every sprite together lets integrate() move all of them in one tight
+ * loop, rather than calling an update method on each sprite object.
+ * <p>
+ * Each Sprite is a view over one slot of a store. Sprites that should move
+ * together (e.g. the sprites of a level) should share a store.
+ */
+public class KinematicsStore {
+
+    // Position (pixels)
+    float[] x;
+    float[] y;
+
+    // Velocity (pixels per millisecond)
+    float[] dx;
+    float[] dy;
+
+    // Dimensions, cached from the sprite's current image
+    float[] width;
+    float[] height;
+    float[] radius;
+
+    // true if the slot should be moved by integrate()
+    boolean[] active;
+
+    private boolean[] used; // true if the slot belongs to a sprite
+    private int[] freeSlots; // Slots that have been released and can be used again
+    private int numFreeSlots;
+    private int highWater; // One past the highest slot ever handed out
+
+    /**
+     * Create an empty store.
+     *
+     * @param capacity The number of slots to make room for initially
+     */
+    public KinematicsStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        x = new float[capacity];
+        y = new float[capacity];
+        dx = new float[capacity];
+        dy = new float[capacity];
+        width = new float[capacity];
+        height = new float[capacity];
+        radius = new float[capacity];
+        active = new boolean[capacity];
+        used = new boolean[capacity];
+        freeSlots = new int[capacity];
+    }
+
+    /**
+     * Hands out an unused slot. All of its values start at 0 and it is not active.
+     *
+     * @return The slot
+     */
+    public int allocate() {
+        int slot;
+        if (numFreeSlots > 0) {
+            slot = freeSlots[--numFreeSlots];
+        } else {
+            if (highWater == x.length) grow(x.length * 2);
+            slot = highWater++;
+        }
+
+        x[slot] = y[slot] = dx[slot] = dy[slot] = 0;
+        width[slot] = height[slot] = radius[slot] = 0;
+        active[slot] = false;
+        used[slot] = true;
+        return slot;
+    }
+
+    /**
+     * Returns a slot to the store so it can be handed out again.
+     *
+     * @param slot The slot to release
+     */
+    public void release(int slot) {
+        if (!used[slot]) return;
+        used[slot] = false;
+        active[slot] = false;
+        freeSlots[numFreeSlots++] = slot;
+    }
+
+    /**
+     * Moves every active slot by its velocity multiplied by 'elapsedTime'.
+     *
+     * @param elapsedTime The time in milliseconds since the last call
+     */
+    public void integrate(long elapsedTime) {
+        final float[] x = this.x, y = this.y, dx = this.dx, dy = this.dy;
+        final boolean[] active = this.active;
+        final int n = highWater;
+
+        for (int i = 0; i < n; i++) {
+            if (active[i]) {
+                x[i] += dx[i] * elapsedTime;
+                y[i] += dy[i] * elapsedTime;
+            }
+        }
+    }
+
+    /**
+     * Moves a single slot by its velocity multiplied by 'elapsedTime'.
+     *
+     * @param slot        The slot to move
+     * @param elapsedTime The time in milliseconds since the last call
+     */
+    public void integrate(int slot, long elapsedTime) {
+        x[slot] += dx[slot] * elapsedTime;
+        y[slot] += dy[slot] * elapsedTime;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        dx = Arrays.copyOf(dx, capacity);
+        dy = Arrays.copyOf(dy, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        active = Arrays.copyOf(active, capacity);
+        used = Arrays.copyOf(used, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+    }
+}
@@ -0,0 +1,216 @@
+package game2D;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The SampleBank decodes each sound file once into 16 bit, signed,
+ * little-endian PCM and keeps the result in memory, so playing a sound
+ * again doesn't touch the disk. Samples keep the sample rate and number of
+ * channels of their file.
+ * <p>
+ * The bank holds at most a fixed number of bytes of samples. When it is
+ * full, the samples used least recently are dropped; anything still
+ * playing one keeps its own reference to it. It is safe to use the bank
+ * from several threads at once.
+ */
+public class SampleBank {
+
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long bytesResident = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long decodeNanosSaved = 0;
+
+    private static final LinkedHashMap<String, Sample> samples = new LinkedHashMap<String, Sample>(16, 0.75f, true);
+
+    /**
+     * A decoded sound.
+     */
+    public static final class Sample {
+
+        private final byte[] data;
+        private final AudioFormat format;
+        private final long decodeNanos; // How long decoding the file took
+
+        private Sample(byte[] data, AudioFormat format, long decodeNanos) {
+            this.data = data;
+            this.format = format;
+            this.decodeNanos = decodeNanos;
+        }
+
+        /**
+         * @return The PCM data. It is shared, so it must not be changed
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return A read only view of the PCM data as 16 bit samples
+         */
+        public ShortBuffer asShortBuffer() {
+            return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asReadOnlyBuffer().asShortBuffer();
+        }
+
+        /**
+         * @return The format of the PCM data
+         */
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return A new stream that reads the PCM data without copying it
+         */
+        public AudioInputStream openStream() {
+            return new AudioInputStream(new ByteArrayInputStream(data), format,
+                    data.length / format.getFrameSize());
+        }
+    }
+
+    /**
+     * Gets the decoded samples of a sound file, decoding it if it isn't
+     * already in the bank.
+     *
+     * @param path The file path of the sound
+     * @return The decoded sound
+     * @throws IOException If the file can't be read or isn't a supported audio format
+     */
+    public static Sample get(String path) throws IOException {
+        synchronized (samples) {
+            Sample sample = samples.get(path);
+            if (sample != null) {
+                hits++;
+                decodeNanosSaved += sample.decodeNanos;
+                return sample;
+            }
+        }
+
+        // Decode outside the lock; if two threads race, the second result is simply dropped
+        Sample sample = decode(path);
+
+        synchronized (samples) {
+            misses++;
+            Sample existing = samples.get(path);
+            if (existing != null) return existing;
+
+            samples.put(path, sample);
+            bytesResident += sample.data.length;
+            evict();
+            return sample;
+        }
+    }
+
+    private static Sample decode(String path) throws IOException {
+        long start = System.nanoTime();
+        try (AudioInputStream stream = AudioSystem.getAudioInputStream(new File(path))) {
+            AudioFormat format = stream.getFormat();
+            AudioFormat target = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+            AudioInputStream pcm = format.matches(target) ? stream : AudioSystem.getAudioInputStream(target, stream);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = pcm.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return new Sample(bytes.toByteArray(), target, System.nanoTime() - start);
+        } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+            throw new IOException("unsupported audio in '" + path + "'", e);
+        }
+    }
+
+    /**
+     * Drops the least recently used samples until the bank is within its limit.
+     * The sample just added is always kept, even if it is bigger than the limit.
+     */
+    private static void evict() {
+        Iterator<Map.Entry<String, Sample>> it = samples.entrySet().iterator();
+        while (bytesResident > maxBytes && samples.size() > 1) {
+            Sample dropped = it.next().getValue();
+            it.remove();
+            bytesResident -= dropped.data.length;
+        }
+    }
+
+    /**
+     * @param bytes The most bytes of samples to keep in memory
+     */
+    public static void setMaxBytes(long bytes) {
+        synchronized (samples) {
+            maxBytes = bytes;
+            evict();
+        }
+    }
+
+    /**
+     * @return The number of bytes of samples in memory
+     */
+    public static long getBytesResident() {
+        synchronized (samples) {
+            return bytesResident;
+        }
+    }
+
+    /**
+     * @return The number of times a sample was found in the bank
+     */
+    public static long getHits() {
+        synchronized (samples) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return The number of times a sound file had to be decoded
+     */
+    public static long getMisses() {
+        synchronized (samples) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return The total time, in nanoseconds, the decodes avoided by the bank would have taken
+     */
+    public static long getDecodeNanosSaved() {
+        synchronized (samples) {
+            return decodeNanosSaved;
+        }
+    }
+
+    /**
+     * @return A one line summary of the bank's memory use and how much decoding it has saved
+     */
+    public static String getStats() {
+        synchronized (samples) {
+            return String.format("%d samples, %.1f KB resident, %d hits, %d misses, %.1f ms of decoding saved",
+                    samples.size(), bytesResident / 1024.0, hits, misses, decodeNanosSaved / 1000000.0);
+        }
+    }
+
+    /**
+     * Removes every sample from the bank.
+     */
+    public static void clear() {
+        synchronized (samples) {
+            samples.clear();
+            bytesResident = 0;
+        }
+    }
+}
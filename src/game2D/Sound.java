@@ -1,6 +1,5 @@
 package game2D;
 
-import java.io.*;
 import javax.sound.sampled.*;
 
 public class Sound extends Thread {
@@ -23,12 +22,12 @@ public class Sound extends Thread {
      */
     public void run() {
         try {
-            File file = new File(filename);
-            AudioInputStream stream = AudioSystem.getAudioInputStream(file);
-            AudioFormat format = stream.getFormat();
+            // The sample is only decoded the first time the file is played
+            SampleBank.Sample sample = SampleBank.get(filename);
+            AudioFormat format = sample.getFormat();
             DataLine.Info info = new DataLine.Info(Clip.class, format);
             clip = (Clip) AudioSystem.getLine(info);
-            clip.open(stream);
+            clip.open(format, sample.getData(), 0, sample.getData().length);
             clip.start();
             Thread.sleep(100);
             while (clip.isRunning()) {
@@ -0,0 +1,197 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * A SpatialHash is a broadphase for collision detection. The world is
+ * split into a uniform grid of cells (usually the size of a tile) and each
+ * entity is recorded in the cells its bounding box covers. Finding the
+ * entities near a box then only means looking in the cells it covers,
+ * rather than checking it against every other entity.
+ * <p>
+ * Cells are hashed into a fixed number of buckets, so the grid has no
+ * bounds and no memory is used for empty space. Entities are identified by
+ * small non-negative integers, such as their index in a list of sprites.
+ */
+public class SpatialHash {
+
+    private final float cellWidth;
+    private final float cellHeight;
+    private final int bucketMask;
+
+    private final int[][] buckets; // The ids of the entities in each bucket
+    private final int[] bucketSizes; // The number of ids in use in each bucket
+
+    // The range of cells each entity was last recorded in
+    private int[] minCellX = new int[0];
+    private int[] minCellY = new int[0];
+    private int[] maxCellX = new int[0];
+    private int[] maxCellY = new int[0];
+    private boolean[] present = new boolean[0];
+
+    // Used to report each entity only once per query when it is in several cells
+    private int[] seenStamps = new int[0];
+    private int stamp = 0;
+
+    /**
+     * Create an empty spatial hash.
+     *
+     * @param cellWidth  The width of a cell in pixels
+     * @param cellHeight The height of a cell in pixels
+     * @param numBuckets The number of buckets, rounded up to a power of two
+     */
+    public SpatialHash(int cellWidth, int cellHeight, int numBuckets) {
+        this.cellWidth = Math.max(1, cellWidth);
+        this.cellHeight = Math.max(1, cellHeight);
+
+        int size = Integer.highestOneBit(Math.max(1, numBuckets - 1)) << 1;
+        bucketMask = size - 1;
+        buckets = new int[size][4];
+        bucketSizes = new int[size];
+    }
+
+    /**
+     * Removes every entity.
+     */
+    public void clear() {
+        Arrays.fill(bucketSizes, 0);
+        Arrays.fill(present, false);
+    }
+
+    /**
+     * Records the bounding box of entity 'id', moving it between cells if it
+     * has moved since the last call. Nothing changes if it is still
+     * in the same cells.
+     *
+     * @param id     The entity
+     * @param x      The left of the bounding box in pixels
+     * @param y      The top of the bounding box in pixels
+     * @param width  The width of the bounding box in pixels
+     * @param height The height of the bounding box in pixels
+     */
+    public void update(int id, float x, float y, float width, float height) {
+        ensureCapacity(id + 1);
+
+        int x0 = cellX(x);
+        int y0 = cellY(y);
+        int x1 = cellX(x + width);
+        int y1 = cellY(y + height);
+
+        if (present[id]) {
+            if (x0 == minCellX[id] && y0 == minCellY[id] && x1 == maxCellX[id] && y1 == maxCellY[id]) return;
+            remove(id);
+        }
+
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                add(bucket(cx, cy), id);
+            }
+        }
+
+        minCellX[id] = x0;
+        minCellY[id] = y0;
+        maxCellX[id] = x1;
+        maxCellY[id] = y1;
+        present[id] = true;
+    }
+
+    /**
+     * Removes entity 'id' from the cells it was recorded in.
+     *
+     * @param id The entity
+     */
+    public void remove(int id) {
+        if (id >= present.length || !present[id]) return;
+
+        for (int cy = minCellY[id]; cy <= maxCellY[id]; cy++) {
+            for (int cx = minCellX[id]; cx <= maxCellX[id]; cx++) {
+                int b = bucket(cx, cy);
+                int[] ids = buckets[b];
+                for (int i = 0; i < bucketSizes[b]; i++) {
+                    if (ids[i] == id) {
+                        // Swap the last id into its place
+                        ids[i] = ids[--bucketSizes[b]];
+                        break;
+                    }
+                }
+            }
+        }
+        present[id] = false;
+    }
+
+    /**
+     * Finds the entities that might overlap the given bounding box. Every
+     * entity in a cell covered by the box is returned once, including any
+     * entity the box belongs to, so an exact test is still needed.
+     *
+     * @param x      The left of the bounding box in pixels
+     * @param y      The top of the bounding box in pixels
+     * @param width  The width of the bounding box in pixels
+     * @param height The height of the bounding box in pixels
+     * @param out    The array to write the ids to, which should be large enough to hold every entity
+     * @return The number of ids written to 'out'
+     */
+    public int query(float x, float y, float width, float height, int[] out) {
+        int x0 = cellX(x);
+        int y0 = cellY(y);
+        int x1 = cellX(x + width);
+        int y1 = cellY(y + height);
+
+        if (++stamp == 0) {
+            // The stamp has wrapped around, so old stamps could be mistaken for this query
+            Arrays.fill(seenStamps, 0);
+            stamp = 1;
+        }
+
+        int count = 0;
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                int b = bucket(cx, cy);
+                int[] ids = buckets[b];
+                for (int i = 0; i < bucketSizes[b]; i++) {
+                    int id = ids[i];
+                    if (seenStamps[id] == stamp) continue;
+                    seenStamps[id] = stamp;
+                    if (count < out.length) out[count++] = id;
+                }
+            }
+        }
+        return count;
+    }
+
+    private int cellX(float x) {
+        return (int) Math.floor(x / cellWidth);
+    }
+
+    private int cellY(float y) {
+        return (int) Math.floor(y / cellHeight);
+    }
+
+    private int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & bucketMask;
+    }
+
+    private void add(int b, int id) {
+        int[] ids = buckets[b];
+        // Buckets are shared by cells that hash the same, so don't add an id twice
+        for (int i = 0; i < bucketSizes[b]; i++) {
+            if (ids[i] == id) return;
+        }
+        if (bucketSizes[b] == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            buckets[b] = ids;
+        }
+        ids[bucketSizes[b]++] = id;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= present.length) return;
+        int size = Math.max(n, present.length * 2);
+        minCellX = Arrays.copyOf(minCellX, size);
+        minCellY = Arrays.copyOf(minCellY, size);
+        maxCellX = Arrays.copyOf(maxCellX, size);
+        maxCellY = Arrays.copyOf(maxCellY, size);
+        present = Arrays.copyOf(present, size);
+        seenStamps = Arrays.copyOf(seenStamps, size);
+    }
+}
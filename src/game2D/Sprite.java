@@ -6,6 +6,8 @@ import java.awt.geom.*;
 
 /**
  * This class provides the functionality for a moving animated image or Sprite.
+ * The sprite's position, velocity and size are kept in a slot of a
+ * KinematicsStore so that a group of sprites can be moved together.
  *
  * @author David Cairns
  *
@@ -15,18 +17,20 @@ public class Sprite {
     // The current Animation to use for this sprite
     private Animation anim;
 
-    // Position (pixels)
-    private float x;
-    private float y;
+    // Where this sprite is up to in its animation. Sprites sharing an
+    // Animation each keep their own time, speed and pause state in this
+    private final AnimationCursor cursor;
 
-    // Velocity (pixels per millisecond)
-    private float dx;
-    private float dy;
+    // The store holding this sprite's position, velocity (pixels per millisecond)
+    // and dimensions, and the slot in it that belongs to this sprite
+    private final KinematicsStore store;
+    private final int slot;
 
-    // Dimensions of the sprite
-    private float height;
-    private float width;
-    private float radius;
+    // The image the cached dimensions were worked out from
+    private Image extentsImage;
+
+    // If sleeping is 'true', the sprite is left where it is when its store is integrated
+    private boolean sleeping;
 
     // The scale to draw the sprite at where 1 equals normal size
     private double xscale;
@@ -44,28 +48,59 @@ public class Sprite {
     private int yoff=0;
 
     /**
-     *  Creates a new Sprite object with the specified Animation.
+     *  Creates a new Sprite object with the specified Animation and
+     *  a store of its own.
      *
      * @param anim The animation to use for the sprite.
      *
      */
     public Sprite(Animation anim)
+    {
+        this(anim, new KinematicsStore(1));
+    }
+
+    /**
+     *  Creates a new Sprite object with the specified Animation, kept in
+     *  a slot of the given store.
+     *
+     * @param anim The animation to use for the sprite.
+     * @param store The store to keep the sprite's position and velocity in.
+     *
+     */
+    public Sprite(Animation anim, KinematicsStore store)
     {
         this.anim = anim;
+        this.cursor = new AnimationCursor(anim.getClip());
+        this.store = store;
+        slot = store.allocate();
         render = false;
+        sleeping = false;
         xscale = 1.0f;
         yscale = 1.0f;
         rotation = 0.0f;
+        refreshExtents();
     }
 
     /**
-     * Change the animation for the sprite to 'a'.
+     * Gives the sprite's slot back to its store. The sprite should not be
+     * used after this.
+     */
+    public void release()
+    {
+        store.release(slot);
+    }
+
+    /**
+     * Change the animation for the sprite to 'a'. The sprite carries on from
+     * the same point in time rather than starting the new animation over.
      *
      * @param a The animation to use for the sprite.
      */
     public void setAnimation(Animation a)
     {
         anim = a;
+        cursor.setClip(a.getClip());
+        refreshExtents();
     }
 
     /**
@@ -75,7 +110,8 @@ public class Sprite {
      */
     public void setAnimationFrame(int frame)
     {
-        anim.setAnimationFrame(frame);
+        cursor.setAnimationFrame(frame);
+        refreshExtents();
     }
 
     /**
@@ -84,7 +120,7 @@ public class Sprite {
      */
     public void pauseAnimation()
     {
-        anim.pause();
+        cursor.pause();
     }
 
     /**
@@ -94,7 +130,7 @@ public class Sprite {
      */
     public void pauseAnimationAtFrame(int f)
     {
-        anim.pauseAt(f);
+        cursor.pauseAt(f);
     }
 
     /**
@@ -102,14 +138,14 @@ public class Sprite {
      * speed of 1 will result in a normal animation,
      * 0.5 will be half the normal rate and 2 will double it.
      *
-     * Note that if you change animation, it will run at whatever
-     * speed it was previously set to.
+     * The speed belongs to this sprite, so if you change animation,
+     * it will carry on running at the same speed.
      *
      * @param speed	The speed to set the current animation to.
      */
     public void setAnimationSpeed(float speed)
     {
-        anim.setAnimationSpeed(speed);
+        cursor.setAnimationSpeed(speed);
     }
 
     /**
@@ -117,7 +153,7 @@ public class Sprite {
      */
     public void playAnimation()
     {
-        anim.play();
+        cursor.play();
     }
 
     /**
@@ -140,15 +176,47 @@ public class Sprite {
     public void update(long elapsedTime)
     {
         if (!render) return;
-        x += dx * elapsedTime;
-        y += dy * elapsedTime;
-        anim.update(elapsedTime);
-        width = getWidth();
-        height = getHeight();
-        if (width > height)
-            radius = width / 2.0f;
+        store.integrate(slot, elapsedTime);
+        updateAnimation(elapsedTime);
+    }
+
+    /**
+     Updates this Sprite's Animation without moving it. Use this
+     when the sprite has been moved by KinematicsStore.integrate.
+
+     @param elapsedTime The time that has elapsed since the last call to update
+     */
+    public void updateAnimation(long elapsedTime)
+    {
+        if (!render) return;
+        // Pick up frames added to the animation since it was set
+        cursor.setClip(anim.getClip());
+        cursor.update(elapsedTime);
+        refreshExtents();
+    }
+
+    /**
+     Works out this Sprite's width, height and radius again if the
+     current image has changed since they were last worked out.
+     */
+    public void refreshExtents()
+    {
+        Image img = cursor.getImage();
+        if (img == extentsImage) return;
+        extentsImage = img;
+
+        float w = 0;
+        float h = 0;
+        if (img != null) {
+            w = (int)(img.getWidth(null)*Math.abs(xscale));
+            h = (int)(img.getHeight(null)*Math.abs(yscale));
+        }
+        store.width[slot] = w;
+        store.height[slot] = h;
+        if (w > h)
+            store.radius[slot] = w / 2.0f;
         else
-            radius = height / 2.0f;
+            store.radius[slot] = h / 2.0f;
     }
 
     /**
@@ -156,7 +224,7 @@ public class Sprite {
      */
     public float getX()
     {
-        return x;
+        return store.x[slot];
     }
 
     /**
@@ -164,7 +232,7 @@ public class Sprite {
      */
     public float getY()
     {
-        return y;
+        return store.y[slot];
     }
 
     /**
@@ -172,7 +240,7 @@ public class Sprite {
      */
     public void setX(float x)
     {
-        this.x = x;
+        store.x[slot] = x;
     }
 
     /**
@@ -180,7 +248,7 @@ public class Sprite {
      */
     public void setY(float y)
     {
-        this.y = y;
+        store.y[slot] = y;
     }
 
     /**
@@ -194,30 +262,30 @@ public class Sprite {
 
     public void shiftX(float shift)
     {
-        this.x += shift;
+        store.x[slot] += shift;
     }
 
     public void shiftY(float shift)
     {
-        this.y += shift;
+        store.y[slot] += shift;
     }
 
     /**
      Gets this Sprite's width, based on the size of the
-     current image.
+     current image when the animation was last updated.
      */
     public int getWidth()
     {
-        return (int)(anim.getImage().getWidth(null)*Math.abs(xscale));
+        return (int) store.width[slot];
     }
 
     /**
      Gets this Sprite's height, based on the size of the
-     current image.
+     current image when the animation was last updated.
      */
     public int getHeight()
     {
-        return (int)(anim.getImage().getHeight(null)*Math.abs(yscale));
+        return (int) store.height[slot];
     }
 
     /**
@@ -225,7 +293,7 @@ public class Sprite {
      */
     public float getRadius()
     {
-        return radius;
+        return store.radius[slot];
     }
 
     /**
@@ -234,7 +302,7 @@ public class Sprite {
      */
     public float getVelocityX()
     {
-        return dx;
+        return store.dx[slot];
     }
 
     /**
@@ -243,7 +311,7 @@ public class Sprite {
      */
     public float getVelocityY()
     {
-        return dy;
+        return store.dy[slot];
     }
 
 
@@ -253,7 +321,7 @@ public class Sprite {
      */
     public void setVelocityX(float dx)
     {
-        this.dx = dx;
+        store.dx[slot] = dx;
     }
 
     /**
@@ -262,7 +330,7 @@ public class Sprite {
      */
     public void setVelocityY(float dy)
     {
-        this.dy = dy;
+        store.dy[slot] = dy;
     }
 
     /**
@@ -271,8 +339,8 @@ public class Sprite {
      */
     public void setVelocity(float dx, float dy)
     {
-        this.dx = dx;
-        this.dy = dy;
+        store.dx[slot] = dx;
+        store.dy[slot] = dy;
     }
 
     /**
@@ -291,6 +359,8 @@ public class Sprite {
     {
         xscale = scx;
         yscale = scy;
+        extentsImage = null;
+        refreshExtents();
     }
 
     /**
@@ -304,6 +374,8 @@ public class Sprite {
     {
         xscale = s;
         yscale = s;
+        extentsImage = null;
+        refreshExtents();
     }
 
 
@@ -349,8 +421,8 @@ public class Sprite {
      */
     public void stop()
     {
-        dx = 0;
-        dy = 0;
+        store.dx[slot] = 0;
+        store.dy[slot] = 0;
     }
 
     /**
@@ -358,7 +430,7 @@ public class Sprite {
      */
     public Image getImage()
     {
-        return anim.getImage();
+        return cursor.getImage();
     }
 
     /**
@@ -370,7 +442,12 @@ public class Sprite {
     {
         if (!render) return;
 
-        g.drawImage(getImage(),(int)x+xoff,(int)y+yoff,null);
+        // Draw from the atlas if the animation has been packed into one
+        TextureAtlas.Region region = cursor.getRegion();
+        if (region != null)
+            region.draw(g,(int)getX()+xoff,(int)getY()+yoff);
+        else
+            g.drawImage(getImage(),(int)getX()+xoff,(int)getY()+yoff,null);
     }
 
     /**
@@ -382,7 +459,7 @@ public class Sprite {
         if (!render) return;
 
         Image img = getImage();
-        g.drawRect((int)x,(int)y,img.getWidth(null),img.getHeight(null));
+        g.drawRect((int)getX(),(int)getY(),img.getWidth(null),img.getHeight(null));
     }
 
     /**
@@ -395,7 +472,7 @@ public class Sprite {
 
         Image img = getImage();
 
-        g.drawArc((int)x,(int)y,img.getWidth(null),img.getHeight(null),0, 360);
+        g.drawArc((int)getX(),(int)getY(),img.getWidth(null),img.getHeight(null),0, 360);
     }
 
     /**
@@ -418,7 +495,7 @@ public class Sprite {
         if (xscale < 0) shiftx = getWidth();
         if (yscale < 0) shifty = getHeight();
 
-        transform.translate(Math.round(x)+shiftx+xoff,Math.round(y)+shifty+yoff);
+        transform.translate(Math.round(getX())+shiftx+xoff,Math.round(getY())+shifty+yoff);
         transform.scale(xscale,yscale);
         transform.rotate(rotation,getImage().getWidth(null)/2,getImage().getHeight(null)/2);
         // Apply transform to the image and draw it
@@ -429,12 +506,27 @@ public class Sprite {
     /**
      Hide the sprite.
      */
-    public void hide()  {	render = false;  }
+    public void hide()  {	render = false; store.active[slot] = false;  }
 
     /**
      Show the sprite
      */
-    public void show()  {  	render = true;   }
+    public void show()  {  	render = true; store.active[slot] = !sleeping;   }
+
+    /**
+     Put the sprite to sleep or wake it up. A sleeping sprite is
+     not moved when its store is integrated.
+     */
+    public void setSleeping(boolean sleeping)
+    {
+        this.sleeping = sleeping;
+        store.active[slot] = render && !sleeping;
+    }
+
+    /**
+     Check whether the sprite is sleeping.
+     */
+    public boolean isSleeping() { return sleeping; }
 
     /**
      Check the visibility status of the sprite.
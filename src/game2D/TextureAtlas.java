@@ -0,0 +1,222 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A TextureAtlas packs many small images into a few large pages that are
+ * compatible with the screen, so that drawing tiles and sprite frames
+ * switches between far fewer source surfaces. Images are packed onto
+ * shelves: each page is filled left to right in rows as tall as the
+ * tallest image placed on them. An image bigger than a page is given a
+ * page of its own.
+ * <p>
+ * The atlas also counts how many times consecutive region draws used a
+ * different page from the last one. Call beginFrame() once per frame to
+ * read the count for the frame that has just been drawn. Regions copied
+ * into offscreen images with copyTo() aren't counted, since those draws
+ * don't switch the screen's source surface.
+ */
+public class TextureAtlas {
+
+    // Surface switch statistics, shared by all atlases since they are drawn to the same screen
+    private static BufferedImage lastPage = null;
+    private static int switches = 0;
+    private static int lastFrameSwitches = 0;
+
+    private final int pageWidth;
+    private final int pageHeight;
+    private final ArrayList<BufferedImage> pages = new ArrayList<BufferedImage>();
+    private final Map<Image, Region> regions = new IdentityHashMap<Image, Region>();
+
+    private BufferedImage currentPage = null; // The page images are being packed into
+    private Graphics2D pageGraphics = null;   // Used to copy images into the current page
+    private int shelfX = 0;      // Where the next image goes on the current shelf
+    private int shelfY = 0;      // The top of the current shelf
+    private int shelfHeight = 0; // The height of the tallest image on the current shelf
+    private long usedArea = 0;   // The number of pixels covered by regions
+
+    /**
+     * A rectangle of an atlas page holding one of the images added to the atlas.
+     */
+    public static final class Region {
+
+        private final BufferedImage page;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        private Region(BufferedImage page, int x, int y, int width, int height) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Draws the region with its top left corner at 'dx','dy'.
+         *
+         * @param g  The graphics device to draw to
+         * @param dx The x position to draw at
+         * @param dy The y position to draw at
+         */
+        public void draw(Graphics2D g, int dx, int dy) {
+            if (page != lastPage) {
+                lastPage = page;
+                switches++;
+            }
+            copyTo(g, dx, dy);
+        }
+
+        /**
+         * Draws the region with its top left corner at 'dx','dy' without
+         * counting it as a surface switch, for drawing into offscreen images
+         * such as cached chunks of a tile map.
+         *
+         * @param g  The graphics device to draw to
+         * @param dx The x position to draw at
+         * @param dy The y position to draw at
+         */
+        public void copyTo(Graphics2D g, int dx, int dy) {
+            g.drawImage(page, dx, dy, dx + width, dy + height, x, y, x + width, y + height, null);
+        }
+
+        public BufferedImage getPage() {
+            return page;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    /**
+     * Create an atlas with pages of the given size.
+     *
+     * @param pageWidth  The width of each page in pixels
+     * @param pageHeight The height of each page in pixels
+     */
+    public TextureAtlas(int pageWidth, int pageHeight) {
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+    }
+
+    /**
+     * Copies an image into the atlas. Adding the same image again returns the
+     * region it was given the first time.
+     *
+     * @param image The image to add
+     * @return The region of the atlas holding the image, or null if the image has no size
+     */
+    public Region add(Image image) {
+        Region region = regions.get(image);
+        if (region != null) return region;
+
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        if (width <= 0 || height <= 0) return null;
+
+        if (width > pageWidth || height > pageHeight) {
+            // Too big to share a page, so it gets one to itself
+            BufferedImage page = newPage(width, height);
+            Graphics2D g = page.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            region = new Region(page, 0, 0, width, height);
+        } else {
+            // Move to a new shelf, and then a new page, if the image doesn't fit
+            if (pageGraphics != null && shelfX + width > pageWidth) {
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            if (pageGraphics == null || shelfY + height > pageHeight) {
+                if (pageGraphics != null) pageGraphics.dispose();
+                currentPage = newPage(pageWidth, pageHeight);
+                pageGraphics = currentPage.createGraphics();
+                shelfX = 0;
+                shelfY = 0;
+                shelfHeight = 0;
+            }
+
+            pageGraphics.drawImage(image, shelfX, shelfY, null);
+            region = new Region(currentPage, shelfX, shelfY, width, height);
+            shelfX += width;
+            shelfHeight = Math.max(shelfHeight, height);
+        }
+
+        usedArea += (long) width * height;
+        regions.put(image, region);
+        return region;
+    }
+
+    /**
+     * Creates a page compatible with the screen and adds it to the atlas.
+     */
+    private BufferedImage newPage(int width, int height) {
+        BufferedImage page = AssetCache.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        pages.add(page);
+        return page;
+    }
+
+    /**
+     * @return The number of pages in the atlas
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return The number of images packed into the atlas
+     */
+    public int getRegionCount() {
+        return regions.size();
+    }
+
+    /**
+     * @return The fraction of the atlas' page area covered by images, from 0 to 1
+     */
+    public float getOccupancy() {
+        long total = 0;
+        for (BufferedImage page : pages) {
+            total += (long) page.getWidth() * page.getHeight();
+        }
+        return total == 0 ? 0 : (float) usedArea / total;
+    }
+
+    /**
+     * @return A one line summary of the atlas' size and occupancy
+     */
+    public String getStats() {
+        return String.format("%d regions on %d page(s) of %dx%d, %.1f%% occupied",
+                getRegionCount(), getPageCount(), pageWidth, pageHeight, getOccupancy() * 100);
+    }
+
+    /**
+     * Marks the start of a new frame, keeping the number of surface switches
+     * made while drawing the last one.
+     */
+    public static void beginFrame() {
+        lastFrameSwitches = switches;
+        switches = 0;
+        lastPage = null;
+    }
+
+    /**
+     * @return The number of times drawing a region switched atlas page during the last frame
+     */
+    public static int getSurfaceSwitches() {
+        return lastFrameSwitches;
+    }
+}
@@ -1,12 +1,21 @@
 package game2D;
 
-import javax.swing.ImageIcon;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 
 /**
@@ -23,6 +32,11 @@ import java.io.*;
  * #b=orangeblock.png
  * #c=greencircle.png
  * #g=glasses.png
+ * // The behaviour of a character can be given with a line starting with @,
+ * // followed by a comma separated list of SOLID, DAMAGE, PICKUP,
+ * // DISAPPEARING or NONE. Characters with an image and no @ line are SOLID.
+ * @c=PICKUP
+ * @g=NONE
  * // The actual tile map is preceded by the #map line
  * #map
  * bbbbbbbbbb
@@ -31,12 +45,37 @@ import java.io.*;
  * bccccccccb
  * bbbbbbbbbb
  * <p>
+ * Maps can also be compiled by TileMapCompiler into a binary format, which
+ * loads much faster. A map file ending in .tmap is read as a compiled map:
+ * a header of the magic number, version, map width and height and tile
+ * width and height, then the character to image file table, the property
+ * flags of each character, and finally the tiles themselves, one or two
+ * bytes each, one row after another. All numbers are big endian.
+ * <p>
+ * Maps too big to hold in memory can be compiled into a chunked map
+ * (.tchunks), which is streamed from disk a chunk at a time around the
+ * point given to updateStreaming. See saveChunkedMap for its layout.
  * }
  *
  * @author David Cairns
  */
 public class TileMap {
-    private Tile[][] tmap; // The tile map grid, initially null
+    public static final int CHUNK_SIZE = 8; // The width and height of a cached chunk in tiles
+    public static final int DEFAULT_MAX_CACHED_CHUNKS = 32;
+
+    public static final String BINARY_MAP_EXTENSION = ".tmap";
+    private static final int BINARY_MAP_MAGIC = 0x544D4150; // "TMAP"
+    private static final int BINARY_MAP_VERSION = 1;
+
+    public static final String CHUNKED_MAP_EXTENSION = ".tchunks";
+    private static final int CHUNKED_MAP_MAGIC = 0x5443484B; // "TCHK"
+    private static final int CHUNKED_MAP_VERSION = 1;
+
+    // Stands in for chunks with nothing to draw so they aren't rendered again
+    private static final BufferedImage EMPTY_CHUNK = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    private char[] tiles; // The tile characters, one row after another, initially null
+    private TileStreamer streamer = null; // Reads chunks of a streamed map in place of tiles, if not null
     private int mapWidth = 0; // The map's width in tiles
     private int mapHeight = 0; // The map's height in tiles
     private int tileWidth = 0; // The width of a tile in pixels
@@ -45,6 +84,28 @@ public class TileMap {
     // imagemap contains a set of character to image mappings for
     // quick loop up of the image associated with a given character.
     private Map<String, Image> imagemap = new HashMap<String, Image>();
+    // filemap holds the file name each character's image was loaded from, so the map can be compiled
+    private Map<String, String> filemap = new HashMap<String, String>();
+    // tileImages holds the same images indexed by the character itself, so drawing a tile needs no String
+    private final Image[] tileImages = new Image[Character.MAX_VALUE + 1];
+
+    // The atlas regions the tile images were packed into, indexed by character, all null if they haven't been packed
+    private final TextureAtlas.Region[] tileRegions = new TextureAtlas.Region[Character.MAX_VALUE + 1];
+    private TextureAtlas atlas = null;
+
+    // properties holds the behaviour flags of each tile character
+    private final TileProperties properties = new TileProperties();
+
+    // chunkCache holds pre-rendered CHUNK_SIZE x CHUNK_SIZE blocks of tiles, keyed by
+    // chunk index and kept in least recently used order so the oldest can be dropped.
+    private boolean chunkCaching = true;
+    private int maxCachedChunks = DEFAULT_MAX_CACHED_CHUNKS;
+    private final LinkedHashMap<Integer, BufferedImage> chunkCache =
+            new LinkedHashMap<Integer, BufferedImage>(64, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+                    return size() > maxCachedChunks;
+                }
+            };
 
     /**
      * @return The map height in tiles
@@ -97,6 +158,10 @@ public class TileMap {
      * @return true if the map loaded successfully, false otherwise
      */
     public boolean loadMap(String folder, String mapfile) {
+        closeStreaming();
+        if (mapfile.endsWith(BINARY_MAP_EXTENSION)) return loadBinaryMap(folder, mapfile);
+        if (mapfile.endsWith(CHUNKED_MAP_EXTENSION)) return openChunkedMap(folder, mapfile);
+
         // Create a full path to the tile map by sticking the folder and mapfile together
         String path = folder + "/" + mapfile;
         int row = 0;
@@ -107,8 +172,9 @@ public class TileMap {
             String trimmed = "";
             String[] vals;
 
-            // First we need to clear out the old image map
-            imagemap.clear();
+            // First we need to clear out the old image map and any chunks drawn with it
+            clearTileTypes();
+            String declared = ""; // The characters given properties by an @ line
 
             // Read the first line of the tile map to find out
             // the relevant dimensions of the map plus the tiles
@@ -143,18 +209,31 @@ public class TileMap {
                     // and it's file name
                     String fileName = trimmed.substring(3, trimmed.length());
 
-                    Image img = new ImageIcon(folder + "/" + fileName).getImage();
-                    // Now add this character->image mapping to the map
-                    if (img != null)
-                        imagemap.put(ch, img);
-                    else
-                        System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
+                    addTileImage(folder, ch, fileName);
+                }
+                else if (trimmed.charAt(0) == '@') // Look for a character's properties
+                {
+                    char ch = trimmed.charAt(1);
+                    int flags = TileProperties.parse(trimmed.substring(3));
+                    if (flags >= 0) {
+                        properties.set(ch, flags);
+                        declared += ch;
+                    } else {
+                        System.err.println("Unknown tile property in '" + trimmed + "'");
+                    }
                 }
             }
 
+            // Any character with an image that wasn't given properties is a solid block
+            for (String ch : imagemap.keySet()) {
+                if (declared.indexOf(ch.charAt(0)) < 0) properties.set(ch.charAt(0), TileProperties.SOLID);
+            }
+            // Positions outside the map act as a solid wall
+            properties.set('?', TileProperties.SOLID);
+
             // Check the map dimensions are at least > 0
             if ((mapWidth > 0) && (mapHeight > 0)) {
-                tmap = new Tile[mapWidth][mapHeight];
+                tiles = new char[mapWidth * mapHeight];
             } else {
                 System.err.println("Incorrect image map dimensions.");
                 trimmed = "";
@@ -172,8 +251,7 @@ public class TileMap {
                         continue;
                     }
 
-                    for (int col = 0; col < mapWidth && col < line.length(); col++)
-                        tmap[col][row] = new Tile(line.charAt(col), col * tileWidth, row * tileHeight);
+                    line.getChars(0, mapWidth, tiles, row * mapWidth);
                     row++;
 
                     if (row >= mapHeight) break;
@@ -195,14 +273,341 @@ public class TileMap {
         return true;
     }
 
+    /**
+     * Clears out the old image map, properties and any chunks drawn with them
+     */
+    private void clearTileTypes() {
+        imagemap.clear();
+        filemap.clear();
+        Arrays.fill(tileImages, null);
+        Arrays.fill(tileRegions, null);
+        atlas = null;
+        chunkCache.clear();
+        properties.clear();
+    }
+
+    /**
+     * Loads the image of a tile character and adds it to the image map
+     *
+     * @param folder   The folder the image is located in
+     * @param ch       The tile character
+     * @param fileName The name of the image file
+     */
+    private void addTileImage(String folder, String ch, String fileName) {
+        filemap.put(ch, fileName);
+        Image img = AssetCache.getImage(folder + "/" + fileName);
+        // Now add this character->image mapping to the map
+        if (img != null) {
+            imagemap.put(ch, img);
+            tileImages[ch.charAt(0)] = img;
+        } else
+            System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
+    }
+
+    /**
+     * Loads a map compiled by TileMapCompiler. The file is memory mapped and
+     * the tiles are copied straight out of it, so there is nothing to parse.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the compiled map file in the map folder
+     * @return true if the map loaded successfully, false otherwise
+     */
+    private boolean loadBinaryMap(String folder, String mapfile) {
+        String path = folder + "/" + mapfile;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (in.getInt() != BINARY_MAP_MAGIC || in.getInt() != BINARY_MAP_VERSION) {
+                System.err.println("'" + path + "' is not a compiled tile map of a supported version");
+                return false;
+            }
+
+            clearTileTypes();
+            mapWidth = in.getInt();
+            mapHeight = in.getInt();
+            tileWidth = in.getInt();
+            tileHeight = in.getInt();
+            if (mapWidth <= 0 || mapHeight <= 0) {
+                System.err.println("Incorrect image map dimensions.");
+                return false;
+            }
+
+            readTileTypes(in, folder);
+
+            int bytesPerTile = in.get();
+            tiles = new char[mapWidth * mapHeight];
+            if (bytesPerTile == 2) {
+                in.asCharBuffer().get(tiles);
+            } else {
+                for (int i = 0; i < tiles.length; i++) {
+                    tiles[i] = (char) (in.get() & 0xff);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to read in tile map '" + path + "':" + e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the map in the compiled format read by loadMap for .tmap files.
+     * The images are not written, only the names of their files.
+     *
+     * @param path The file path to write the compiled map to
+     * @throws IOException If the file can't be written
+     */
+    public void saveBinaryMap(String path) throws IOException {
+        if (streamer != null) throw new IOException("a streamed map can't be compiled");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(BINARY_MAP_MAGIC);
+            out.writeInt(BINARY_MAP_VERSION);
+            out.writeInt(mapWidth);
+            out.writeInt(mapHeight);
+            out.writeInt(tileWidth);
+            out.writeInt(tileHeight);
+
+            writeTileTypes(out);
+
+            // Tiles only take a byte each unless the map uses characters beyond Latin-1
+            int bytesPerTile = 1;
+            for (char ch : tiles) {
+                if (ch > 0xff) {
+                    bytesPerTile = 2;
+                    break;
+                }
+            }
+            out.writeByte(bytesPerTile);
+            for (char ch : tiles) {
+                if (bytesPerTile == 2) out.writeChar(ch);
+                else out.writeByte(ch);
+            }
+        }
+    }
+
+    /**
+     * Reads the character to image file table and the property flags of each
+     * character, loading the images, as written by writeTileTypes.
+     *
+     * @param in     The buffer to read from
+     * @param folder The folder the images are located in
+     */
+    private void readTileTypes(ByteBuffer in, String folder) {
+        int images = in.getInt();
+        for (int i = 0; i < images; i++) {
+            char ch = in.getChar();
+            byte[] name = new byte[in.getShort() & 0xffff];
+            in.get(name);
+            addTileImage(folder, ch + "", new String(name, StandardCharsets.UTF_8));
+        }
+
+        int flagged = in.getInt();
+        for (int i = 0; i < flagged; i++) {
+            char ch = in.getChar();
+            properties.set(ch, in.get());
+        }
+    }
+
+    /**
+     * Writes the character to image file table and the property flags of
+     * each character that has any.
+     *
+     * @param out The stream to write to
+     * @throws IOException If the stream can't be written to
+     */
+    private void writeTileTypes(DataOutputStream out) throws IOException {
+        out.writeInt(filemap.size());
+        for (Map.Entry<String, String> entry : filemap.entrySet()) {
+            byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            out.writeChar(entry.getKey().charAt(0));
+            out.writeShort(name.length);
+            out.write(name);
+        }
+
+        int flagged = 0;
+        for (int ch = 0; ch <= Character.MAX_VALUE; ch++) {
+            if (properties.get((char) ch) != TileProperties.NONE) flagged++;
+        }
+        out.writeInt(flagged);
+        for (int ch = 0; ch <= Character.MAX_VALUE; ch++) {
+            int flags = properties.get((char) ch);
+            if (flags == TileProperties.NONE) continue;
+            out.writeChar(ch);
+            out.writeByte(flags);
+        }
+    }
+
+    /**
+     * Opens a chunked map written by saveChunkedMap. Only the header is read
+     * here; the tiles are read a chunk at a time as they are needed, and
+     * updateStreaming decides which chunks stay in memory.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the chunked map file in the map folder
+     * @return true if the map opened successfully, false otherwise
+     */
+    private boolean openChunkedMap(String folder, String mapfile) {
+        String path = folder + "/" + mapfile;
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer start = ByteBuffer.allocate(12);
+            while (start.hasRemaining() && channel.read(start, start.position()) >= 0) ;
+            start.flip();
+            if (start.remaining() < 12 || start.getInt() != CHUNKED_MAP_MAGIC
+                    || start.getInt() != CHUNKED_MAP_VERSION) {
+                System.err.println("'" + path + "' is not a chunked tile map of a supported version");
+                channel.close();
+                return false;
+            }
+            int dataOffset = start.getInt();
+
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset);
+            in.position(12);
+
+            clearTileTypes();
+            mapWidth = in.getInt();
+            mapHeight = in.getInt();
+            tileWidth = in.getInt();
+            tileHeight = in.getInt();
+            int chunkSize = in.getInt();
+            if (mapWidth <= 0 || mapHeight <= 0 || chunkSize <= 0) {
+                System.err.println("Incorrect image map dimensions.");
+                channel.close();
+                return false;
+            }
+            readTileTypes(in, folder);
+
+            tiles = null;
+            streamer = new TileStreamer(channel, dataOffset, mapWidth, mapHeight, chunkSize);
+        } catch (Exception e) {
+            System.err.println("Failed to open tile map '" + path + "':" + e);
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) {
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the map as a chunked map, which loadMap opens for streaming
+     * when its file name ends in .tchunks. After a header like that of a
+     * compiled map (with the offset of the tile data and the chunk size
+     * added) come the chunks, one after another along each row of chunks.
+     * Every chunk holds chunkSize x chunkSize tiles of two bytes each, with
+     * chunks at the edges padded with blank tiles, so any chunk can be found
+     * and rewritten in place.
+     *
+     * @param path      The file path to write the chunked map to
+     * @param chunkSize The width and height of a chunk in tiles
+     * @throws IOException If the file can't be written
+     */
+    public void saveChunkedMap(String path, int chunkSize) throws IOException {
+        if (streamer != null) throw new IOException("a streamed map can't be rewritten");
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(mapWidth);
+        out.writeInt(mapHeight);
+        out.writeInt(tileWidth);
+        out.writeInt(tileHeight);
+        out.writeInt(chunkSize);
+        writeTileTypes(out);
+        out.flush();
+
+        try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            file.writeInt(CHUNKED_MAP_MAGIC);
+            file.writeInt(CHUNKED_MAP_VERSION);
+            file.writeInt(12 + header.size()); // The offset of the first chunk
+            header.writeTo(file);
+
+            int chunksAcross = (mapWidth + chunkSize - 1) / chunkSize;
+            int chunksDown = (mapHeight + chunkSize - 1) / chunkSize;
+            for (int cy = 0; cy < chunksDown; cy++) {
+                for (int cx = 0; cx < chunksAcross; cx++) {
+                    for (int r = cy * chunkSize; r < (cy + 1) * chunkSize; r++) {
+                        for (int c = cx * chunkSize; c < (cx + 1) * chunkSize; c++) {
+                            file.writeChar(valid(c, r) ? tiles[r * mapWidth + c] : '.');
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the map is being streamed from a chunked map file
+     */
+    public boolean isStreaming() {
+        return streamer != null;
+    }
+
+    /**
+     * Keeps the chunks around a point of a streamed map in memory, evicting
+     * those that have moved out of range and prefetching the ones ahead in
+     * the direction of travel. Does nothing if the map isn't being streamed.
+     *
+     * @param x         The x position to stream around, in pixels
+     * @param y         The y position to stream around, in pixels
+     * @param velocityX The speed being travelled along the x axis
+     * @param velocityY The speed being travelled along the y axis
+     */
+    public void updateStreaming(float x, float y, float velocityX, float velocityY) {
+        if (streamer == null) return;
+        streamer.update((int) Math.floor(x / tileWidth), (int) Math.floor(y / tileHeight), velocityX, velocityY);
+    }
+
+    /**
+     * Sets how many chunks either side of the streaming point stay in memory.
+     *
+     * @param radius The resident radius in chunks
+     */
+    public void setResidentRadius(int radius) {
+        if (streamer != null) streamer.setResidentRadius(radius);
+    }
+
+    /**
+     * @return The number of chunks of a streamed map currently in memory, or 0 if the map isn't streamed
+     */
+    public int getResidentChunkCount() {
+        return streamer == null ? 0 : streamer.getResidentCount();
+    }
+
+    /**
+     * Writes any modified chunks of a streamed map back to its file and
+     * closes it. Does nothing if the map isn't being streamed.
+     */
+    public void closeStreaming() {
+        if (streamer == null) return;
+        streamer.close();
+        streamer = null;
+    }
+
+    /**
+     * Gets the character at 'x','y', which must be a valid position,
+     * from wherever the map's tiles are kept.
+     */
+    private char charAt(int x, int y) {
+        if (streamer != null) return streamer.get(x, y);
+        return tiles[y * mapWidth + x];
+    }
+
     /**
      * Generate the tile map as a String, so we can inspect its current state
      */
     public String toString() {
         StringBuffer s = new StringBuffer();
         for (int r = 0; r < mapHeight; r++) {
-            for (int c = 0; c < mapWidth; c++)
-                s.append(tmap[c][r].getCharacter());
+            for (int c = 0; c < mapWidth; c++) {
+                s.append(charAt(c, r));
+            }
 
             s.append('\n');
         }
@@ -218,11 +623,75 @@ public class TileMap {
      */
     public Image getTileImage(int x, int y) {
         if (!valid(x, y)) return null;
-        Tile t = tmap[x][y];
-        if (t == null) return null;
-        char ch = t.getCharacter();
+        char ch = charAt(x, y);
         if (ch == '.') return null; // Blank space
-        return imagemap.get(ch + "");
+        return tileImages[ch];
+    }
+
+    /**
+     * Packs the map's tile images into an atlas, so that tiles are drawn
+     * from a few large images rather than one image per kind of tile.
+     *
+     * @param atlas The atlas to pack the tile images into
+     */
+    public void packInto(TextureAtlas atlas) {
+        this.atlas = atlas;
+        Arrays.fill(tileRegions, null);
+        for (Map.Entry<String, Image> entry : imagemap.entrySet()) {
+            tileRegions[entry.getKey().charAt(0)] = atlas.add(entry.getValue());
+        }
+        chunkCache.clear();
+    }
+
+    /**
+     * @return The atlas the tile images were packed into, or null if they haven't been packed
+     */
+    public TextureAtlas getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Draws the tile at position 'x','y' with its top left corner at 'xc','yc',
+     * using its atlas region if the map has been packed into an atlas.
+     *
+     * @param toScreen True if 'g' draws to the screen, so atlas page switches are counted
+     * @return false if the tile is blank and nothing was drawn
+     */
+    private boolean drawTile(Graphics2D g, int x, int y, int xc, int yc, boolean toScreen) {
+        char ch = charAt(x, y);
+        if (ch == '.') return false; // Blank space
+        TextureAtlas.Region region = tileRegions[ch];
+        if (region != null) {
+            if (toScreen)
+                region.draw(g, xc, yc);
+            else
+                region.copyTo(g, xc, yc);
+            return true;
+        }
+        Image img = tileImages[ch];
+        if (img == null) return false;
+        g.drawImage(img, xc, yc, null);
+        return true;
+    }
+
+    /**
+     * @return The behaviour flags of the characters in this map
+     */
+    public TileProperties getTileProperties() {
+        return properties;
+    }
+
+    /**
+     * Gets the behaviour flags of the tile at position 'x','y'. Positions
+     * outside the map are solid.
+     *
+     * @param x The x tile coordinate (in tiles, not pixels)
+     * @param y The y tile coordinate (in tiles, not pixels)
+     * @return The TileProperties flags of the tile at position 'x,y'
+     */
+    public int getTileFlags(int x, int y) {
+        if (!valid(x, y)) return TileProperties.SOLID;
+        return properties.get(charAt(x, y));
     }
 
     /**
@@ -234,7 +703,7 @@ public class TileMap {
      */
     public int getTileXC(int x, int y) {
         if (!valid(x, y)) return 0;
-        return tmap[x][y].getXC();
+        return x * tileWidth;
     }
 
     /**
@@ -246,7 +715,7 @@ public class TileMap {
      */
     public int getTileYC(int x, int y) {
         if (!valid(x, y)) return 0;
-        return tmap[x][y].getYC();
+        return y * tileHeight;
     }
 
     /**
@@ -268,7 +737,12 @@ public class TileMap {
      */
     public boolean setTileChar(char ch, int x, int y) {
         if (!valid(x, y)) return false;
-        tmap[x][y].setCharacter(ch);
+        if (charAt(x, y) != ch) {
+            if (streamer != null) streamer.set(x, y, ch);
+            else tiles[y * mapWidth + x] = ch;
+            // The cached image of the chunk this tile is in is now out of date
+            chunkCache.remove(chunkKey(x / CHUNK_SIZE, y / CHUNK_SIZE));
+        }
         return true;
     }
 
@@ -281,23 +755,121 @@ public class TileMap {
      */
     public char getTileChar(int x, int y) {
         if (!valid(x, y)) return '?';
-        return tmap[x][y].getCharacter();
+        return charAt(x, y);
     }
 
     /**
-     * Gets the tile object at position 'x,y'
+     * Gets a tile object describing position 'x,y'. Tiles are stored as
+     * plain characters, so this is a copy and changing its character
+     * does not change the map; use setTileChar for that.
      *
      * @param x The x tile coordinate (in tiles, not pixels)
      * @param y The y tile coordinate (in tiles, not pixels)
-     * @return The tile object at position 'x,y'.
+     * @return A tile object for position 'x,y'.
      */
     public Tile getTile(int x, int y) {
         if (!valid(x, y)) return null;
-        return tmap[x][y];
+        return new Tile(charAt(x, y), x * tileWidth, y * tileHeight);
+    }
+
+    /**
+     * Turns drawing from pre-rendered chunks on or off. When on, each block
+     * of CHUNK_SIZE x CHUNK_SIZE tiles is drawn into an image the first time
+     * it is seen and that image is drawn from then on, until a tile in the
+     * block is changed with setTileChar.
+     *
+     * @param caching True to draw the map from cached chunks
+     */
+    public void setChunkCaching(boolean caching) {
+        chunkCaching = caching;
+        if (!caching) chunkCache.clear();
+    }
+
+    /**
+     * Sets how many chunk images may be kept at once. When the limit is
+     * reached the least recently drawn chunk is dropped.
+     *
+     * @param max The maximum number of cached chunk images
+     */
+    public void setMaxCachedChunks(int max) {
+        maxCachedChunks = Math.max(1, max);
+        while (chunkCache.size() > maxCachedChunks) {
+            chunkCache.remove(chunkCache.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @return The number of chunk images currently cached
+     */
+    public int getCachedChunkCount() {
+        return chunkCache.size();
+    }
+
+    /**
+     * @param chunkX The x chunk coordinate (in chunks, not tiles)
+     * @param chunkY The y chunk coordinate (in chunks, not tiles)
+     * @return The key of the chunk in the chunk cache
+     */
+    private Integer chunkKey(int chunkX, int chunkY) {
+        int chunksAcross = (mapWidth + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return chunkY * chunksAcross + chunkX;
     }
 
     /**
-     * Draws the tile map to the graphics device pointed to by 'g'.
+     * Gets the image of a chunk from the cache, drawing it if it isn't there.
+     *
+     * @param chunkX The x chunk coordinate (in chunks, not tiles)
+     * @param chunkY The y chunk coordinate (in chunks, not tiles)
+     * @return The image of the chunk, or EMPTY_CHUNK if it has no tiles to draw
+     */
+    private BufferedImage getChunkImage(int chunkX, int chunkY) {
+        Integer key = chunkKey(chunkX, chunkY);
+        BufferedImage chunk = chunkCache.get(key);
+        if (chunk == null) {
+            chunk = renderChunk(chunkX, chunkY);
+            chunkCache.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Draws the tiles of a chunk into a new image compatible with the screen.
+     *
+     * @param chunkX The x chunk coordinate (in chunks, not tiles)
+     * @param chunkY The y chunk coordinate (in chunks, not tiles)
+     * @return The image of the chunk, or EMPTY_CHUNK if it has no tiles to draw
+     */
+    private BufferedImage renderChunk(int chunkX, int chunkY) {
+        int firstCol = chunkX * CHUNK_SIZE;
+        int firstRow = chunkY * CHUNK_SIZE;
+        int cols = Math.min(CHUNK_SIZE, mapWidth - firstCol);
+        int rows = Math.min(CHUNK_SIZE, mapHeight - firstRow);
+
+        BufferedImage chunk = null;
+        Graphics2D g = null;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (getTileImage(firstCol + c, firstRow + r) == null) continue;
+
+                // Only create the image once we know there is something to draw
+                if (chunk == null) {
+                    chunk = AssetCache.createCompatibleImage(cols * tileWidth, rows * tileHeight,
+                            Transparency.TRANSLUCENT);
+                    g = chunk.createGraphics();
+                }
+                drawTile(g, firstCol + c, firstRow + r, c * tileWidth, r * tileHeight, false);
+            }
+        }
+
+        if (chunk == null) return EMPTY_CHUNK;
+        g.dispose();
+        return chunk;
+    }
+
+    /**
+     * Draws the tile map to the graphics device pointed to by 'g'. Only the
+     * tiles that fall inside the clip rectangle of 'g' are visited, so the
+     * cost depends on the size of the screen rather than the size of the map.
      *
      * @param g    The graphics device to draw to
      * @param xoff The xoffset to shift the tile map by
@@ -306,21 +878,39 @@ public class TileMap {
     public void draw(Graphics2D g, int xoff, int yoff) {
         if (g == null) return;
 
-        Image img = null;
-        Rectangle rect = (Rectangle) g.getClip();
+        Rectangle rect = g.getClipBounds();
         int xc, yc;
 
-        for (int r = 0; r < mapHeight; r++) {
-            for (int c = 0; c < mapWidth; c++) {
-                img = getTileImage(c, r);
-                if (img == null) continue;
-                xc = xoff + c * tileWidth;
-                yc = yoff + r * tileHeight;
-
-                // Only draw the tile if it is on screen, otherwise go back round the loop
-                if (xc + tileWidth < 0 || xc >= rect.x + rect.width) continue;
-                if (yc + tileHeight < 0 || yc >= rect.y + rect.height) continue;
-                g.drawImage(img, xc, yc, null);
+        // Work out the range of rows and columns that can be seen
+        int firstCol = 0;
+        int lastCol = mapWidth - 1;
+        int firstRow = 0;
+        int lastRow = mapHeight - 1;
+        if (rect != null) {
+            firstCol = Math.max(firstCol, Math.floorDiv(rect.x - xoff, tileWidth));
+            lastCol = Math.min(lastCol, Math.floorDiv(rect.x + rect.width - 1 - xoff, tileWidth));
+            firstRow = Math.max(firstRow, Math.floorDiv(rect.y - yoff, tileHeight));
+            lastRow = Math.min(lastRow, Math.floorDiv(rect.y + rect.height - 1 - yoff, tileHeight));
+        }
+
+        if (chunkCaching) {
+            // Draw one image per visible chunk rather than one per tile
+            for (int cy = firstRow / CHUNK_SIZE; cy <= lastRow / CHUNK_SIZE && firstRow <= lastRow; cy++) {
+                yc = yoff + cy * CHUNK_SIZE * tileHeight;
+                for (int cx = firstCol / CHUNK_SIZE; cx <= lastCol / CHUNK_SIZE && firstCol <= lastCol; cx++) {
+                    BufferedImage chunk = getChunkImage(cx, cy);
+                    if (chunk == EMPTY_CHUNK) continue;
+                    xc = xoff + cx * CHUNK_SIZE * tileWidth;
+                    g.drawImage(chunk, xc, yc, null);
+                }
+            }
+            return;
+        }
+
+        for (int r = firstRow; r <= lastRow; r++) {
+            yc = yoff + r * tileHeight;
+            for (int c = firstCol; c <= lastCol; c++) {
+                drawTile(g, c, r, xoff + c * tileWidth, yc, true);
             }
         }
     }
@@ -0,0 +1,71 @@
+package game2D;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compiles text tile maps into the binary format that TileMap loads from
+ * .tmap files. Each compiled map is written next to its text map, with the
+ * .txt extension replaced, so both can be kept side by side. For example:
+ * <p>
+ * java game2D.TileMapCompiler maps/Level1Map.txt maps/Level2Map.txt
+ * <p>
+ * Given --chunk-size=N first, the maps are written as chunked maps
+ * (.tchunks) of N x N tile chunks for streaming instead.
+ */
+public class TileMapCompiler {
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java game2D.TileMapCompiler [--chunk-size=N] <map file> ...");
+            System.exit(1);
+        }
+
+        int chunkSize = 0;
+        boolean failed = false;
+        for (String arg : args) {
+            if (arg.startsWith("--chunk-size=")) {
+                chunkSize = Integer.parseInt(arg.substring("--chunk-size=".length()));
+                continue;
+            }
+            try {
+                String compiled = compile(arg, chunkSize);
+                System.out.println("Compiled " + arg + " (" + new File(arg).length() + " bytes) to "
+                        + compiled + " (" + new File(compiled).length() + " bytes)");
+            } catch (IOException e) {
+                System.err.println("Failed to compile '" + arg + "': " + e.getMessage());
+                failed = true;
+            }
+        }
+        if (failed) System.exit(1);
+    }
+
+    /**
+     * Compiles a text tile map, writing the result next to it.
+     *
+     * @param path      The file path of the text tile map
+     * @param chunkSize The chunk size to write a chunked map with, or 0 to write a compiled map
+     * @return The file path of the compiled map
+     * @throws IOException If the map can't be loaded or the compiled map can't be written
+     */
+    public static String compile(String path, int chunkSize) throws IOException {
+        File file = new File(path);
+        String folder = file.getParent() == null ? "." : file.getParent();
+        String name = file.getName();
+
+        TileMap map = new TileMap();
+        if (!map.loadMap(folder, name)) {
+            throw new IOException("the map could not be loaded");
+        }
+
+        if (name.endsWith(".txt")) name = name.substring(0, name.length() - 4);
+        if (chunkSize > 0) {
+            String chunked = folder + "/" + name + TileMap.CHUNKED_MAP_EXTENSION;
+            map.saveChunkedMap(chunked, chunkSize);
+            return chunked;
+        }
+        String compiled = folder + "/" + name + TileMap.BINARY_MAP_EXTENSION;
+        map.saveBinaryMap(compiled);
+        return compiled;
+    }
+}
@@ -0,0 +1,108 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * TileProperties records how each tile character behaves, e.g. whether
+ * sprites can pass through it or whether it hurts them. The properties of
+ * a character are a set of bit flags held in a table indexed by the
+ * character itself, so looking them up is a single array access.
+ */
+public class TileProperties {
+
+    public static final int NONE = 0;
+    public static final int SOLID = 1; // Sprites cannot pass through the tile
+    public static final int DAMAGE = 2; // The tile hurts the player
+    public static final int PICKUP = 4; // The tile can be collected
+    public static final int DISAPPEARING = 8; // The tile disappears after being stood on
+
+    private final byte[] flags = new byte[Character.MAX_VALUE + 1];
+
+    /**
+     * @param ch The tile character
+     * @return The property flags of the character
+     */
+    public int get(char ch) {
+        return flags[ch];
+    }
+
+    /**
+     * @param ch    The tile character
+     * @param flags The property flags to give the character
+     */
+    public void set(char ch, int flags) {
+        this.flags[ch] = (byte) flags;
+    }
+
+    /**
+     * @param ch The tile character
+     * @return true if sprites cannot pass through the character
+     */
+    public boolean isSolid(char ch) {
+        return (flags[ch] & SOLID) != 0;
+    }
+
+    /**
+     * @param ch The tile character
+     * @return true if the character hurts the player
+     */
+    public boolean isDamage(char ch) {
+        return (flags[ch] & DAMAGE) != 0;
+    }
+
+    /**
+     * @param ch The tile character
+     * @return true if the character can be collected
+     */
+    public boolean isPickup(char ch) {
+        return (flags[ch] & PICKUP) != 0;
+    }
+
+    /**
+     * @param ch The tile character
+     * @return true if the character disappears after being stood on
+     */
+    public boolean isDisappearing(char ch) {
+        return (flags[ch] & DISAPPEARING) != 0;
+    }
+
+    /**
+     * Resets every character to having no properties.
+     */
+    public void clear() {
+        Arrays.fill(flags, (byte) 0);
+    }
+
+    /**
+     * Converts a comma separated list of property names, such as
+     * "SOLID,DAMAGE", into property flags.
+     *
+     * @param names The property names
+     * @return The property flags, or -1 if a name wasn't recognised
+     */
+    public static int parse(String names) {
+        int result = NONE;
+        for (String name : names.split(",")) {
+            switch (name.trim().toUpperCase()) {
+                case "":
+                case "NONE":
+                    break;
+                case "SOLID":
+                    result |= SOLID;
+                    break;
+                case "DAMAGE":
+                    result |= DAMAGE;
+                    break;
+                case "PICKUP":
+                    result |= PICKUP;
+                    break;
+                case "DISAPPEARING":
+                    result |= DISAPPEARING;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,267 @@
+package game2D;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the chunks of a chunked map file that are near the camera in memory
+ * for a streamed TileMap. Chunks are read when first needed, evicted once
+ * they are more than the resident radius (plus one, so that walking back
+ * and forth over a chunk edge doesn't thrash) from the streaming point, and
+ * written back to the file on eviction if a tile in them was changed.
+ * A chunk used since the last update is kept whatever its distance, so
+ * sprites and map scans working beyond the resident area don't read the
+ * same chunks again every tick; it goes once it stops being used.
+ * Chunks just past the resident area in the direction of travel are read
+ * ahead on a background thread.
+ * <p>
+ * Apart from the background reads, a TileStreamer must only be used from
+ * one thread.
+ */
+class TileStreamer {
+
+    public static final int DEFAULT_RESIDENT_RADIUS = 2;
+    public static final long CLOSE_TIMEOUT = 5000; // How long close() waits for reads ahead to finish, in ms
+
+    private final FileChannel channel;
+    private final long dataOffset; // Where the first chunk starts in the file
+    private final int chunkSize;
+    private final int chunksAcross;
+    private final int chunksDown;
+
+    private int residentRadius = DEFAULT_RESIDENT_RADIUS;
+
+    private final HashMap<Integer, char[]> resident = new HashMap<Integer, char[]>();
+    private final HashSet<Integer> dirty = new HashSet<Integer>();
+    private final HashSet<Integer> touched = new HashSet<Integer>(); // Chunks used since the last update
+    private final HashMap<Integer, Future<char[]>> prefetching = new HashMap<Integer, Future<char[]>>();
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "TileStreamer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // The last chunk used, since consecutive lookups are nearly always in the same chunk
+    private int lastKey = -1;
+    private char[] lastChunk = null;
+
+    /**
+     * @param channel    The open chunked map file
+     * @param dataOffset The position of the first chunk in the file
+     * @param mapWidth   The map's width in tiles
+     * @param mapHeight  The map's height in tiles
+     * @param chunkSize  The width and height of a chunk in tiles
+     */
+    TileStreamer(FileChannel channel, long dataOffset, int mapWidth, int mapHeight, int chunkSize) {
+        this.channel = channel;
+        this.dataOffset = dataOffset;
+        this.chunkSize = chunkSize;
+        chunksAcross = (mapWidth + chunkSize - 1) / chunkSize;
+        chunksDown = (mapHeight + chunkSize - 1) / chunkSize;
+    }
+
+    /**
+     * @param x The x tile coordinate, which must be on the map
+     * @param y The y tile coordinate, which must be on the map
+     * @return The character at 'x','y'
+     */
+    char get(int x, int y) {
+        return chunk(x / chunkSize, y / chunkSize)[(y % chunkSize) * chunkSize + x % chunkSize];
+    }
+
+    /**
+     * @param x  The x tile coordinate, which must be on the map
+     * @param y  The y tile coordinate, which must be on the map
+     * @param ch The character to set the tile to
+     */
+    void set(int x, int y, char ch) {
+        chunk(x / chunkSize, y / chunkSize)[(y % chunkSize) * chunkSize + x % chunkSize] = ch;
+        dirty.add((y / chunkSize) * chunksAcross + x / chunkSize);
+    }
+
+    void setResidentRadius(int radius) {
+        residentRadius = Math.max(0, radius);
+    }
+
+    int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Gets a chunk, reading it now if it isn't in memory or being read ahead.
+     */
+    private char[] chunk(int chunkX, int chunkY) {
+        int key = chunkY * chunksAcross + chunkX;
+        if (key == lastKey) return lastChunk;
+
+        char[] chunk = resident.get(key);
+        if (chunk == null) {
+            Future<char[]> pending = prefetching.remove(key);
+            chunk = (pending != null) ? await(pending, key) : read(key);
+            resident.put(key, chunk);
+        }
+        touched.add(key);
+        lastKey = key;
+        lastChunk = chunk;
+        return chunk;
+    }
+
+    /**
+     * Moves the streaming point to tile 'x','y'.
+     *
+     * @param x         The x tile coordinate to stream around
+     * @param y         The y tile coordinate to stream around
+     * @param velocityX The speed being travelled along the x axis
+     * @param velocityY The speed being travelled along the y axis
+     */
+    void update(int x, int y, float velocityX, float velocityY) {
+        int centreX = Math.max(0, Math.min(chunksAcross - 1, Math.floorDiv(x, chunkSize)));
+        int centreY = Math.max(0, Math.min(chunksDown - 1, Math.floorDiv(y, chunkSize)));
+
+        // Evict chunks that have moved out of range, writing back any that were changed
+        Iterator<Map.Entry<Integer, char[]>> it = resident.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, char[]> entry = it.next();
+            int key = entry.getKey();
+            if (distance(key, centreX, centreY) <= residentRadius + 1 || touched.contains(key)) continue;
+            if (dirty.remove(key)) write(key, entry.getValue());
+            it.remove();
+        }
+        Iterator<Map.Entry<Integer, Future<char[]>>> pending = prefetching.entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<Integer, Future<char[]>> entry = pending.next();
+            if (distance(entry.getKey(), centreX, centreY) <= residentRadius + 1) continue;
+            entry.getValue().cancel(false);
+            pending.remove();
+        }
+        lastKey = -1;
+        lastChunk = null;
+
+        // Make sure everything within the resident radius is in memory
+        for (int cy = centreY - residentRadius; cy <= centreY + residentRadius; cy++) {
+            for (int cx = centreX - residentRadius; cx <= centreX + residentRadius; cx++) {
+                if (cx >= 0 && cy >= 0 && cx < chunksAcross && cy < chunksDown) chunk(cx, cy);
+            }
+        }
+        // Only chunks used between now and the next update should be kept for it
+        touched.clear();
+        lastKey = -1;
+        lastChunk = null;
+
+        // Read ahead the line of chunks just past the resident area in the direction of travel
+        int ahead = residentRadius + 1;
+        if (velocityX != 0) {
+            int cx = centreX + (velocityX > 0 ? ahead : -ahead);
+            for (int cy = centreY - residentRadius; cy <= centreY + residentRadius; cy++) prefetch(cx, cy);
+        }
+        if (velocityY != 0) {
+            int cy = centreY + (velocityY > 0 ? ahead : -ahead);
+            for (int cx = centreX - residentRadius; cx <= centreX + residentRadius; cx++) prefetch(cx, cy);
+        }
+    }
+
+    /**
+     * @return How many chunks away from 'centreX','centreY' the chunk 'key' is
+     */
+    private int distance(int key, int centreX, int centreY) {
+        return Math.max(Math.abs(key % chunksAcross - centreX), Math.abs(key / chunksAcross - centreY));
+    }
+
+    private void prefetch(int chunkX, int chunkY) {
+        if (chunkX < 0 || chunkY < 0 || chunkX >= chunksAcross || chunkY >= chunksDown) return;
+        int key = chunkY * chunksAcross + chunkX;
+        if (resident.containsKey(key) || prefetching.containsKey(key)) return;
+        prefetching.put(key, prefetcher.submit(() -> read(key)));
+    }
+
+    private char[] await(Future<char[]> pending, int key) {
+        try {
+            return pending.get();
+        } catch (Exception e) {
+            // Fall back to reading it here
+            return read(key);
+        }
+    }
+
+    /**
+     * Reads a chunk from the file. If it can't be read, a blank chunk is returned.
+     */
+    private char[] read(int key) {
+        char[] chunk = new char[chunkSize * chunkSize];
+        ByteBuffer buffer = ByteBuffer.allocate(chunk.length * 2);
+        long position = dataOffset + (long) key * buffer.capacity();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("unexpected end of file");
+            }
+            buffer.flip();
+            buffer.asCharBuffer().get(chunk);
+        } catch (IOException e) {
+            System.err.println("Failed to read map chunk " + key + ":" + e);
+            Arrays.fill(chunk, '.');
+        }
+        return chunk;
+    }
+
+    /**
+     * Writes a chunk back to its place in the file.
+     */
+    private void write(int key, char[] chunk) {
+        ByteBuffer buffer = ByteBuffer.allocate(chunk.length * 2);
+        buffer.asCharBuffer().put(chunk);
+        long position = dataOffset + (long) key * buffer.capacity();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write map chunk " + key + ":" + e);
+        }
+    }
+
+    /**
+     * Writes back every changed chunk and closes the file. Reads ahead that
+     * have started are left to finish first rather than interrupted, since
+     * interrupting a thread blocked on the channel closes it and the
+     * changed chunks could then no longer be written.
+     */
+    void close() {
+        for (Future<char[]> pending : prefetching.values()) {
+            pending.cancel(false);
+        }
+        prefetcher.shutdown();
+        boolean interrupted = false;
+        try {
+            if (!prefetcher.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS))
+                System.err.println("Timed out waiting for map chunks being read ahead");
+        } catch (InterruptedException e) {
+            // Writing with the interrupt still set would close the channel, so restore it afterwards
+            interrupted = true;
+        }
+        for (int key : dirty) {
+            write(key, resident.get(key));
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        dirty.clear();
+        resident.clear();
+        touched.clear();
+        prefetching.clear();
+        lastKey = -1;
+        lastChunk = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close chunked map:" + e);
+        }
+    }
+}
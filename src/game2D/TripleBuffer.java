@@ -0,0 +1,77 @@
+package game2D;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TripleBuffer hands objects from a single producer thread to a single
+ * consumer thread without either of them waiting for the other. The
+ * producer fills the back slot and publishes it, the consumer takes the
+ * most recently published slot as its front slot. The third slot sits in
+ * the middle so that neither side ever touches the slot the other is using.
+ * <p>
+ * If the producer publishes more than once before the consumer takes a
+ * slot, the older contents are simply overwritten, so the consumer always
+ * sees the newest one.
+ *
+ * @param <T> The type of object held in each slot
+ */
+public class TripleBuffer<T> {
+
+    private static final int DIRTY = 4; // Set in middle when it holds a slot the consumer hasn't seen
+    private static final int INDEX_MASK = 3;
+
+    private final Object[] slots;
+    private final AtomicInteger middle; // The index of the shared slot, plus the DIRTY flag
+    private int back; // The slot owned by the producer
+    private int front; // The slot owned by the consumer
+
+    /**
+     * Create a triple buffer from three separate slot objects.
+     *
+     * @param first  The initial back slot
+     * @param second The initial middle slot
+     * @param third  The initial front slot
+     */
+    public TripleBuffer(T first, T second, T third) {
+        slots = new Object[]{first, second, third};
+        back = 0;
+        middle = new AtomicInteger(1);
+        front = 2;
+    }
+
+    /**
+     * @return The slot the producer should fill. Only call from the producer thread.
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) slots[back];
+    }
+
+    /**
+     * Makes the back slot available to the consumer and gives the producer
+     * a new back slot. Only call from the producer thread.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | DIRTY) & INDEX_MASK;
+    }
+
+    /**
+     * Takes the newest published slot as the front slot, if one has been
+     * published since the last call. Only call from the consumer thread.
+     *
+     * @return true if the front slot changed
+     */
+    public boolean poll() {
+        if ((middle.get() & DIRTY) == 0) return false;
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return true;
+    }
+
+    /**
+     * @return The slot the consumer is reading. Only call from the consumer thread.
+     */
+    @SuppressWarnings("unchecked")
+    public T getFront() {
+        return (T) slots[front];
+    }
+}
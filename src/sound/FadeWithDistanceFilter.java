@@ -2,106 +2,185 @@ package sound;
 
 import game2D.Sprite;
 
+import javax.sound.sampled.AudioFormat;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.logging.Logger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 
 /**
- * A filter to reduce the volume of a sound with distance. If the maximum
- * distance is exceeded, no sound will be played.
+ * A filter to reduce the volume of a sound with distance and pan it towards
+ * the side of the listener the source is on. If the maximum distance is
+ * exceeded, no sound will be played.
+ * <p>
+ * The filter reads 16 bit, signed, little-endian mono or stereo sound and
+ * always produces stereo in the same format, so the stream it is wrapped in
+ * should use getFormat(). Each block read is processed as a whole: the
+ * samples are copied out through a ShortBuffer view, scaled in a simple
+ * loop over an array, and copied back.
  */
 public class FadeWithDistanceFilter extends FilterInputStream {
 
-    //Number of samples to shift while changing the volume
+    //Number of frames to shift over while changing the volume
     private static final int NUM_SHIFTING_SAMPLES = 500;
 
-    private Sprite source;
-    private Sprite listener;
+    //The fraction of the way through the volume shift at each frame of it
+    private static final float[] RAMP = new float[NUM_SHIFTING_SAMPLES];
+
+    static {
+        for (int i = 0; i < NUM_SHIFTING_SAMPLES; i++) {
+            RAMP[i] = (float) i / NUM_SHIFTING_SAMPLES;
+        }
+    }
+
+    private final Sprite source;
+    private final Sprite listener;
     private final int maxDistance;
-    private float lastVolume;
+    private final int inChannels;
+    private final AudioFormat format;
 
-    private static final Logger LOGGER = Logger.getLogger(FadeWithDistanceFilter.class.getName());
+    //The gain of each output channel at the end of the last block
+    private float lastLeft;
+    private float lastRight;
+
+    //Scratch space for the block being processed
+    private byte[] inBytes = new byte[0];
+    private short[] inSamples = new short[0];
+    private short[] outSamples = new short[0];
 
     /**
-     * Creates a <code>FilterInputStream</code>
-     * by assigning the  argument <code>in</code>
-     * to the field <code>this.in</code> so as
-     * to remember it for later use.
+     * Creates a filter over a stream of 16 bit, signed, little-endian sound.
      *
-     * @param in the underlying input stream, or <code>null</code> if
-     *           this instance is to be created without an underlying stream.
+     * @param in          The sound to filter
+     * @param format      The format of the sound, which must be mono or stereo
+     * @param source      The sprite the sound comes from, or null to leave the sound unchanged
+     * @param listener    The sprite hearing the sound
+     * @param maxDistance The distance at which the sound can no longer be heard
      */
-    protected FadeWithDistanceFilter(InputStream in, Sprite source, Sprite listener, int maxDistance) {
+    protected FadeWithDistanceFilter(InputStream in, AudioFormat format, Sprite source, Sprite listener,
+                                     int maxDistance) {
         super(in);
 
         this.source = source;
         this.listener = listener;
         this.maxDistance = maxDistance;
-        this.lastVolume = 0.0f;
-    }
-
-    /**
-     * Convenience method for getting a 16 bit sample from a byte array. Samples should be in 16 bit, signed,
-     * little-endian format.
-     *
-     * @param buffer the array of sound data
-     * @param position the index in the buffer to be returned
-     * @return the sample from the requested position
-     */
-    public short getSample(byte[] buffer, int position) {
-        return (short) (((buffer[position + 1] & 0xff) << 8) | (buffer[position] & 0xff));
+        this.inChannels = format.getChannels();
+        this.format = new AudioFormat(format.getSampleRate(), 16, 2, true, false);
+        //Without a source the sound is left at full volume from the start
+        this.lastLeft = (source == null) ? 1.0f : 0.0f;
+        this.lastRight = this.lastLeft;
     }
 
     /**
-     * Convenience method for setting a 16 bit sample  in a byte array. Samples should be in 16 bit, signed,
-     * little-endian format.
-     *
-     * @param buffer the array of sound data
-     * @param position the index in the buffer in which to assign the sample
-     * @param sample the new sample to assign to the requested position
+     * @return The format of the sound read from this filter
      */
-    public void setSample(byte[] buffer, int position, short sample) {
-        buffer[position] = (byte) (sample & 0xff);
-        buffer[position+1] = (byte) ((sample >> 8) & 0xff);
+    public AudioFormat getFormat() {
+        return format;
     }
 
     public int read(byte[] samples, int offset, int length) throws IOException {
-        int bytesRead = super.read(samples,offset,length);
-        if(source == null) {
-            return length;
+        //Read as many whole input frames as there is room for as output frames
+        int frames = length / 4;
+        if (frames == 0) return 0;
+        int inFrameBytes = inChannels * 2;
+        if (inBytes.length < frames * inFrameBytes) {
+            inBytes = new byte[frames * inFrameBytes];
+            inSamples = new short[frames * inChannels];
+            outSamples = new short[frames * 2];
+        }
+
+        int bytesRead = super.read(inBytes, 0, frames * inFrameBytes);
+        if (bytesRead <= 0) return bytesRead;
+        frames = bytesRead / inFrameBytes;
+
+        ByteBuffer.wrap(inBytes, 0, frames * inFrameBytes).order(ByteOrder.LITTLE_ENDIAN)
+                .asShortBuffer().get(inSamples, 0, frames * inChannels);
+
+        //Work out the gain of each channel from where the source is
+        float left = 1.0f;
+        float right = 1.0f;
+        if (source != null) {
+            float dx = (source.getX() - listener.getX());
+            float dy = (source.getY() - listener.getY());
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+
+            //Set volume from 0 (no sound) to 1
+            float volume = Math.max(0, (maxDistance - distance) / maxDistance);
+
+            //Pan from -1 (left) to 1 (right), keeping a centred sound at full volume in both channels
+            float pan = Math.max(-1, Math.min(1, dx / maxDistance));
+            double angle = (pan + 1) * Math.PI / 4;
+            left = (float) Math.min(1, volume * Math.cos(angle) * Math.sqrt(2));
+            right = (float) Math.min(1, volume * Math.sin(angle) * Math.sqrt(2));
+        }
+
+        if (inChannels == 1) {
+            applyGainMono(inSamples, outSamples, frames, left, right);
+        } else {
+            applyGainStereo(inSamples, outSamples, frames, left, right);
         }
+        lastLeft = left;
+        lastRight = right;
 
-        //Calculate the listener's distance from the sound source
-        float dx = (source.getX() - listener.getX());
-        float dy = (source.getY() - listener.getY());
-        float distance = (float) Math.sqrt(dx * dx + dy * dy);
+        ShortBuffer out = ByteBuffer.wrap(samples, offset, frames * 4).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        out.put(outSamples, 0, frames * 2);
+        return frames * 4;
+    }
 
-        //Set volume from 0 (no sound) to 1
-        float newVolume = (maxDistance - distance) / maxDistance;
-        if (newVolume <= 0) {
-            newVolume = 0;
+    /**
+     * Scales a block of mono samples into stereo, shifting from the last gains to the new
+     * ones over the first frames so that the volume change isn't abrupt.
+     */
+    private void applyGainMono(short[] in, short[] out, int frames, float left, float right) {
+        int ramp = Math.min(frames, NUM_SHIFTING_SAMPLES);
+        float leftDelta = left - lastLeft;
+        float rightDelta = right - lastRight;
+        for (int i = 0; i < ramp; i++) {
+            float sample = in[i];
+            out[2 * i] = (short) (sample * (lastLeft + leftDelta * RAMP[i]));
+            out[2 * i + 1] = (short) (sample * (lastRight + rightDelta * RAMP[i]));
         }
+        //After the shift the gains are fixed, so scale with whole numbers, which the JIT vectorises best
+        int leftQ = (int) (left * 32768);
+        int rightQ = (int) (right * 32768);
+        for (int i = ramp; i < frames; i++) {
+            int sample = in[i];
+            out[2 * i] = (short) ((sample * leftQ) >> 15);
+            out[2 * i + 1] = (short) ((sample * rightQ) >> 15);
+        }
+    }
 
-        //Set the volume of the sample
-        int shift = 0;
-        for(int i = offset; i < bytesRead; i += 2) {
-            float volume = newVolume;
-
-            //Shift from the last volume to the new volume so that volume change isn't abrupt
-            if (shift < NUM_SHIFTING_SAMPLES) {
-                volume = lastVolume + (newVolume - lastVolume) * shift / NUM_SHIFTING_SAMPLES;
-                shift++;
-            }
-
-            //Change the volume of the sample
-            short oldSample = getSample(samples, i);
-            short newSample = (short)(oldSample * volume);
-            setSample(samples, i, newSample);
+    /**
+     * Scales a block of stereo samples, shifting from the last gains to the new ones over
+     * the first frames so that the volume change isn't abrupt.
+     */
+    private void applyGainStereo(short[] in, short[] out, int frames, float left, float right) {
+        int ramp = Math.min(frames, NUM_SHIFTING_SAMPLES);
+        float leftDelta = left - lastLeft;
+        float rightDelta = right - lastRight;
+        for (int i = 0; i < ramp; i++) {
+            out[2 * i] = (short) (in[2 * i] * (lastLeft + leftDelta * RAMP[i]));
+            out[2 * i + 1] = (short) (in[2 * i + 1] * (lastRight + rightDelta * RAMP[i]));
+        }
+        int leftQ = (int) (left * 32768);
+        int rightQ = (int) (right * 32768);
+        for (int i = 2 * ramp; i < 2 * frames; i += 2) {
+            out[i] = (short) ((in[i] * leftQ) >> 15);
+            out[i + 1] = (short) ((in[i + 1] * rightQ) >> 15);
         }
-        lastVolume = newVolume;
-        //LOGGER.info("Volume is " + lastVolume);
+    }
+
+    public int available() throws IOException {
+        return super.available() / (inChannels * 2) * 4;
+    }
+
+    public long skip(long n) throws IOException {
+        return super.skip(n / 4 * inChannels * 2) / (inChannels * 2) * 4;
+    }
 
-        return length;
+    public boolean markSupported() {
+        return false;
     }
 }
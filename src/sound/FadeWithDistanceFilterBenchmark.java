@@ -0,0 +1,164 @@
+package sound;
+
+import game2D.Animation;
+import game2D.Sprite;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Times how many samples a second FadeWithDistanceFilter gets through,
+ * against the sample at a time filter it replaced, which is kept below as
+ * the baseline. Both are fed the same ten seconds of random 16 bit sound,
+ * mono and then stereo, in blocks of the size the mixer reads. For example:
+ * <p>
+ * java sound.FadeWithDistanceFilterBenchmark [rounds]
+ * <p>
+ * The first rounds warm up the JIT, so compare the later ones.
+ */
+public class FadeWithDistanceFilterBenchmark {
+
+    private static final float SAMPLE_RATE = 44100;
+    private static final int SECONDS = 10;
+    private static final int BLOCK_FRAMES = 4096; // The frames read at a time
+    private static final int PASSES = 20;         // The times the sound is filtered per round
+    private static final int MAX_DISTANCE = 640;
+
+    public static void main(String[] args) throws IOException {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+
+        Sprite source = new Sprite(new Animation());
+        Sprite listener = new Sprite(new Animation());
+        source.setPosition(100, 0);
+        listener.setPosition(0, 0);
+
+        for (int channels = 1; channels <= 2; channels++) {
+            AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, channels, true, false);
+            byte[] sound = new byte[(int) SAMPLE_RATE * SECONDS * channels * 2];
+            new Random(1).nextBytes(sound);
+
+            System.out.println((channels == 1 ? "Mono" : "Stereo") + " input, samples read per second:");
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                long oldSamples = 0;
+                for (int pass = 0; pass < PASSES; pass++) {
+                    oldSamples += runBaseline(sound, channels, source, listener);
+                }
+                long middle = System.nanoTime();
+                long newSamples = 0;
+                for (int pass = 0; pass < PASSES; pass++) {
+                    newSamples += runFilter(sound, format, source, listener);
+                }
+                long end = System.nanoTime();
+                System.out.println(String.format("  round %d: old %.1f M, new %.1f M", round + 1,
+                        oldSamples * 1e3 / (middle - start), newSamples * 1e3 / (end - middle)));
+            }
+        }
+    }
+
+    /**
+     * @return The number of input samples filtered
+     */
+    private static long runFilter(byte[] sound, AudioFormat format, Sprite source, Sprite listener)
+            throws IOException {
+        FadeWithDistanceFilter filter = new FadeWithDistanceFilter(new ByteArrayInputStream(sound), format,
+                source, listener, MAX_DISTANCE);
+        byte[] block = new byte[BLOCK_FRAMES * 4]; // The filter always reads out stereo
+        long frames = 0;
+        int read;
+        while ((read = filter.read(block, 0, block.length)) > 0) {
+            frames += read / 4;
+        }
+        return frames * format.getChannels();
+    }
+
+    /**
+     * @return The number of input samples filtered
+     */
+    private static long runBaseline(byte[] sound, int channels, Sprite source, Sprite listener)
+            throws IOException {
+        BaselineFilter filter = new BaselineFilter(new ByteArrayInputStream(sound), source, listener, MAX_DISTANCE);
+        byte[] block = new byte[BLOCK_FRAMES * channels * 2];
+        // The old filter always returned the length asked for, even at the end, so read exactly the sound
+        for (int done = 0; done < sound.length; done += block.length) {
+            filter.read(block, 0, Math.min(block.length, sound.length - done));
+        }
+        return sound.length / 2;
+    }
+
+    /**
+     * The filter as it was before it read whole blocks: it only fades, with
+     * no panning, and scales each sample in place, reading and writing its
+     * bytes one at a time.
+     */
+    private static class BaselineFilter extends FilterInputStream {
+
+        //Number of samples to shift while changing the volume
+        private static final int NUM_SHIFTING_SAMPLES = 500;
+
+        private Sprite source;
+        private Sprite listener;
+        private final int maxDistance;
+        private float lastVolume;
+
+        BaselineFilter(InputStream in, Sprite source, Sprite listener, int maxDistance) {
+            super(in);
+
+            this.source = source;
+            this.listener = listener;
+            this.maxDistance = maxDistance;
+            this.lastVolume = 0.0f;
+        }
+
+        public short getSample(byte[] buffer, int position) {
+            return (short) (((buffer[position + 1] & 0xff) << 8) | (buffer[position] & 0xff));
+        }
+
+        public void setSample(byte[] buffer, int position, short sample) {
+            buffer[position] = (byte) (sample & 0xff);
+            buffer[position+1] = (byte) ((sample >> 8) & 0xff);
+        }
+
+        public int read(byte[] samples, int offset, int length) throws IOException {
+            int bytesRead = super.read(samples,offset,length);
+            if(source == null) {
+                return length;
+            }
+
+            //Calculate the listener's distance from the sound source
+            float dx = (source.getX() - listener.getX());
+            float dy = (source.getY() - listener.getY());
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+
+            //Set volume from 0 (no sound) to 1
+            float newVolume = (maxDistance - distance) / maxDistance;
+            if (newVolume <= 0) {
+                newVolume = 0;
+            }
+
+            //Set the volume of the sample
+            int shift = 0;
+            for(int i = offset; i < bytesRead; i += 2) {
+                float volume = newVolume;
+
+                //Shift from the last volume to the new volume so that volume change isn't abrupt
+                if (shift < NUM_SHIFTING_SAMPLES) {
+                    volume = lastVolume + (newVolume - lastVolume) * shift / NUM_SHIFTING_SAMPLES;
+                    shift++;
+                }
+
+                //Change the volume of the sample
+                short oldSample = getSample(samples, i);
+                short newSample = (short)(oldSample * volume);
+                setSample(samples, i, newSample);
+            }
+            lastVolume = newVolume;
+
+            return length;
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package sound;
 
+import game2D.SampleBank;
 import game2D.Sound;
 import game2D.Sprite;
 
 import javax.sound.sampled.*;
-import java.io.File;
 
+/**
+ * Plays a sound on a line of its own through a FadeWithDistanceFilter, for
+ * a one-off positional sound outside the mixer. The game itself plays its
+ * positional sounds through SpatialAudioManager.
+ */
 public class FadeWithDistanceFilterSound extends Sound {
 
     private final String filename;    // The name of the file to play
@@ -24,14 +29,13 @@ public class FadeWithDistanceFilterSound extends Sound {
 
     public void run() {
         try {
-            File file = new File(filename);
-            AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+            AudioInputStream stream = SampleBank.get(filename).openStream();
             AudioFormat format = stream.getFormat();
 
-            FadeWithDistanceFilter filtered = new FadeWithDistanceFilter(stream, source, listener, maxDistance);
-            AudioInputStream fStream = new AudioInputStream(filtered, format, stream.getFrameLength());
+            FadeWithDistanceFilter filtered = new FadeWithDistanceFilter(stream, format, source, listener, maxDistance);
+            AudioInputStream fStream = new AudioInputStream(filtered, filtered.getFormat(), stream.getFrameLength());
 
-            DataLine.Info info = new DataLine.Info(Clip.class, format);
+            DataLine.Info info = new DataLine.Info(Clip.class, filtered.getFormat());
             Clip clip = (Clip) AudioSystem.getLine(info);
             clip.open(fStream);
             clip.start();
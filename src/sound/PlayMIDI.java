@@ -10,9 +10,22 @@ public class PlayMIDI {
 
     private Sequencer seq;
 
+    /**
+     * Reads a MIDI file so that it can be played later without touching the disk.
+     *
+     * @param filename The MIDI file to read
+     * @return The MIDI data stored in the file
+     */
+    public static Sequence loadSequence(String filename) throws Exception {
+        return MidiSystem.getSequence(new File(filename));
+    }
+
     public void play(String filename) throws Exception {
         //Get a reference to the MIDI data stored in the file
-        Sequence score = MidiSystem.getSequence(new File(filename));
+        play(loadSequence(filename));
+    }
+
+    public void play(Sequence score) throws Exception {
         //Get a reference to the sequencer that will play it
         seq = MidiSystem.getSequencer();
 
@@ -0,0 +1,131 @@
+package sound;
+
+import game2D.AudioMixer;
+import game2D.Sprite;
+
+/**
+ * Plays sounds that come from a position in the world, fading them with
+ * their distance from a listener and panning them towards the side of the
+ * listener they are on, in the same way as FadeWithDistanceFilter.
+ * <p>
+ * Sounds posted with post() are collected until flush() is called, once per
+ * update. Sounds further than the maximum distance from the listener are
+ * dropped straight away, before any work is done on them. Of the rest, only
+ * the loudest few are played through the mixer. Nothing is allocated while
+ * posting or flushing.
+ */
+public class SpatialAudioManager {
+
+    private final AudioMixer mixer;
+    private final int maxDistance;
+    private Sprite listener;
+
+    // The sounds waiting to be played, loudest first
+    private final int[] pendingSound;
+    private final float[] pendingGain;
+    private final float[] pendingPan;
+    private int pendingCount = 0;
+
+    private long culled = 0;  // Sounds too far away to hear
+    private long dropped = 0; // Sounds that could be heard but weren't among the loudest
+    private long played = 0;
+
+    /**
+     * @param mixer       The mixer to play sounds through
+     * @param maxDistance The distance at which a sound can no longer be heard
+     * @param maxSounds   The most sounds to play per flush, at least 1
+     */
+    public SpatialAudioManager(AudioMixer mixer, int maxDistance, int maxSounds) {
+        if (maxSounds < 1)
+            throw new IllegalArgumentException("SpatialAudioManager must play at least 1 sound per flush, not " + maxSounds);
+        this.mixer = mixer;
+        this.maxDistance = maxDistance;
+        pendingSound = new int[maxSounds];
+        pendingGain = new float[maxSounds];
+        pendingPan = new float[maxSounds];
+    }
+
+    /**
+     * @param listener The sprite that hears the sounds
+     */
+    public void setListener(Sprite listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Posts a sound to be played at the next flush, if it is close enough to
+     * the listener and loud enough to be among the sounds played.
+     *
+     * @param soundId The id the mixer gave the sound
+     * @param x       The x position of the sound in the world
+     * @param y       The y position of the sound in the world
+     */
+    public void post(int soundId, float x, float y) {
+        if (listener == null) return;
+
+        float dx = x - listener.getX();
+        float dy = y - listener.getY();
+        float distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared >= (float) maxDistance * maxDistance) {
+            culled++;
+            return;
+        }
+
+        float gain = (maxDistance - (float) Math.sqrt(distanceSquared)) / maxDistance;
+        float pan = Math.max(-1, Math.min(1, dx / maxDistance));
+
+        // Keep the pending sounds sorted, loudest first, so the quietest is the one to drop
+        int i = pendingCount;
+        if (i == pendingGain.length) {
+            if (gain <= pendingGain[i - 1]) {
+                dropped++;
+                return;
+            }
+            dropped++;
+            i--;
+        } else {
+            pendingCount++;
+        }
+        while (i > 0 && pendingGain[i - 1] < gain) {
+            pendingSound[i] = pendingSound[i - 1];
+            pendingGain[i] = pendingGain[i - 1];
+            pendingPan[i] = pendingPan[i - 1];
+            i--;
+        }
+        pendingSound[i] = soundId;
+        pendingGain[i] = gain;
+        pendingPan[i] = pan;
+    }
+
+    /**
+     * Plays the sounds posted since the last flush.
+     */
+    public void flush() {
+        for (int i = 0; i < pendingCount; i++) {
+            mixer.play(pendingSound[i], pendingGain[i], pendingPan[i]);
+        }
+        played += pendingCount;
+        pendingCount = 0;
+    }
+
+    /**
+     * @return The number of sounds dropped for being too far from the listener
+     */
+    public long getCulled() {
+        return culled;
+    }
+
+    /**
+     * @return The number of sounds in earshot dropped for not being among the loudest
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The number of sounds played
+     */
+    public long getPlayed() {
+        return played;
+    }
+}